@@ -0,0 +1,202 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Потокобезопасная книга цен для одновременного применения новых цен из нескольких источников
+ * по правилам {@link MergerService#mergePrices(List, List)}.
+ *
+ * <p>Цены каждой группы хранятся неизменяемым снимком, упорядоченным по началу действия.
+ * Применение новых цен строит новый снимок группы и заменяет старый сравнением с обменом;
+ * если группу успели изменить, слияние повторяется с новым снимком. Блокировок нет,
+ * поэтому обновления разных групп не мешают друг другу, а читатели получают согласованный
+ * снимок группы без ожидания писателей.
+ *
+ * <p>Слияние затрагивает только цены, пересекающиеся с периодом новых цен или примыкающие к нему,
+ * как в {@link PriceBook}, но снимок группы копируется целиком, поэтому применение к группе
+ * из n цен стоит O(n). Цены разных групп применяются независимо: применение набора цен
+ * нескольких групп не атомарно.
+ */
+public class ConcurrentPriceBook {
+
+    private static final Snapshot EMPTY = new Snapshot(new Price[0]);
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin);
+
+    private final MergerServiceImpl merger = new MergerServiceImpl();
+    private final ConcurrentMap<MergerServiceImpl.PriceKey, Snapshot> groups = new ConcurrentHashMap<>();
+    private final LongAdder size = new LongAdder(); // количество цен в книге
+
+    /**
+     * Пустая книга цен
+     */
+    public ConcurrentPriceBook() {
+    }
+
+    /**
+     * Книга цен с начальным набором имеющихся цен
+     *
+     * @param existingPrices Коллекция имеющихся цен
+     */
+    public ConcurrentPriceBook(List<Price> existingPrices) {
+        apply(existingPrices);
+    }
+
+    /**
+     * Применение новых цен. Может вызываться одновременно из нескольких потоков.
+     *
+     * @param newPrices Коллекция новых цен
+     */
+    public void apply(List<Price> newPrices) {
+        final PriceKeyIndex priceGroups = merger.divideByPriceKey(newPrices, Collections.emptyList());
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            applyGroup(priceGroups.getKey(group), priceGroups.getNewPrices(group));
+        }
+    }
+
+    /**
+     * Цены группы с заданными атрибутами
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @return Неизменяемый снимок цен группы, упорядоченных по началу действия
+     */
+    public List<Price> getPrices(String productCode, int number, int depart) {
+        final Snapshot snapshot = groups.get(new MergerServiceImpl.PriceKey(productCode, number, depart));
+        return snapshot == null ? Collections.emptyList() : snapshot.asList();
+    }
+
+    /**
+     * @return Все цены книги. Цены каждой группы согласованы, группы между собой - нет.
+     */
+    public List<Price> getPrices() {
+        final List<Price> prices = new ArrayList<>();
+        for (Snapshot snapshot : groups.values()) {
+            prices.addAll(snapshot.asList());
+        }
+        return prices;
+    }
+
+    /**
+     * @return Количество цен в книге
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Применение новых цен одной группы с повтором при одновременном изменении группы
+     *
+     * @param key       Ключ группы
+     * @param newPrices Новые цены группы
+     */
+    private void applyGroup(MergerServiceImpl.PriceKey key, List<Price> newPrices) {
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (Price newPrice : newPrices) {
+            from = Math.min(from, newPrice.getBegin().getTime());
+            to = Math.max(to, newPrice.getEnd().getTime());
+        }
+
+        while (true) {
+            final Snapshot current = groups.getOrDefault(key, EMPTY);
+            final Snapshot merged = merge(current, newPrices, from, to);
+            final boolean replaced = current == EMPTY
+                    ? groups.putIfAbsent(key, merged) == null
+                    : groups.replace(key, current, merged);
+            if (replaced) {
+                size.add(merged.prices.length - current.prices.length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Новый снимок группы: цены до периода, объединённые цены периода, цены после периода
+     */
+    private Snapshot merge(Snapshot current, List<Price> newPrices, long from, long to) {
+        final int affectedFrom = current.affectedFrom(from);
+        final int affectedTo = current.affectedTo(to);
+
+        final List<Price> mergedPrices;
+        if (affectedFrom == affectedTo) {
+            mergedPrices = new ArrayList<>(newPrices);
+            mergedPrices.sort(BY_BEGIN);
+        } else {
+            mergedPrices = merger.mergeCommonPrices(newPrices,
+                    Arrays.asList(current.prices).subList(affectedFrom, affectedTo));
+        }
+
+        final Price[] prices = new Price[current.prices.length - (affectedTo - affectedFrom) + mergedPrices.size()];
+        System.arraycopy(current.prices, 0, prices, 0, affectedFrom);
+        for (int i = 0; i < mergedPrices.size(); i++) {
+            prices[affectedFrom + i] = mergedPrices.get(i);
+        }
+        System.arraycopy(current.prices, affectedTo, prices, affectedFrom + mergedPrices.size(),
+                current.prices.length - affectedTo);
+        return new Snapshot(prices);
+    }
+
+    /**
+     * Неизменяемый снимок цен группы, упорядоченных по началу действия
+     */
+    private static final class Snapshot {
+        final Price[] prices;
+        final long[] begins; // начала действия цен для двоичного поиска
+
+        Snapshot(Price[] prices) {
+            this.prices = prices;
+            this.begins = new long[prices.length];
+            for (int i = 0; i < prices.length; i++) {
+                begins[i] = prices[i].getBegin().getTime();
+            }
+        }
+
+        List<Price> asList() {
+            return Collections.unmodifiableList(Arrays.asList(prices));
+        }
+
+        /**
+         * Индекс первой цены, пересекающейся с периодом, начинающимся в from, или примыкающей к нему.
+         * Начаться раньше периода и дотянуться до него может только одна цена.
+         */
+        int affectedFrom(long from) {
+            final int index = lowerBound(from);
+            if (index > 0 && prices[index - 1].getEnd().getTime() >= from) {
+                return index - 1;
+            }
+            return index;
+        }
+
+        /**
+         * Индекс за последней ценой, начинающейся не позже to
+         */
+        int affectedTo(long to) {
+            return to == Long.MAX_VALUE ? begins.length : lowerBound(to + 1);
+        }
+
+        /**
+         * Индекс первой цены, начинающейся не раньше time
+         */
+        private int lowerBound(long time) {
+            int low = 0;
+            int high = begins.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (begins[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.svichkarev.pricemerger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>Слияние цен вне памяти для каталогов, не помещающихся в кучу.
+ *
+ * <p>Входные цены читаются потоком. Пока общее количество цен не превышает ограничение,
+ * они сливаются в памяти. Иначе обе последовательности разбиваются по хэшу ключа цены
+ * на разделы во временных файлах, и разделы сливаются по одному с передачей результата получателю.
+ * Раздел, превышающий ограничение, разбивается повторно с другим хэшем. Цены одной группы всегда
+ * попадают в один раздел в исходном порядке, поэтому результат совпадает с
+ * {@link MergerService#mergePrices(List, List)} с точностью до порядка цен.
+ *
+ * <p>Одна группа не делится между разделами: если раздел не уменьшается повторным разбиением,
+ * он сливается в памяти независимо от ограничения.
+ */
+public class ExternalPriceMerger {
+
+    /**
+     * Количество разделов при разбиении по умолчанию
+     */
+    public static final int DEFAULT_PARTITIONS = 64;
+
+    private final Path directory;
+    private final long maxPricesInMemory;
+    private final PricePartitioner partitioner;
+    private final MergerServiceImpl merger;
+
+    /**
+     * @param directory         Каталог временных файлов
+     * @param maxPricesInMemory Наибольшее количество новых и имеющихся цен, сливаемых в памяти
+     */
+    public ExternalPriceMerger(Path directory, long maxPricesInMemory) {
+        this(directory, maxPricesInMemory, DEFAULT_PARTITIONS, new MergerServiceImpl());
+    }
+
+    /**
+     * @param directory         Каталог временных файлов
+     * @param maxPricesInMemory Наибольшее количество новых и имеющихся цен, сливаемых в памяти
+     * @param partitions        Количество разделов при разбиении
+     * @param merger            Слияние цен раздела в памяти
+     */
+    public ExternalPriceMerger(Path directory, long maxPricesInMemory, int partitions, MergerServiceImpl merger) {
+        if (maxPricesInMemory <= 0 || partitions < 2) {
+            throw new IllegalArgumentException("Invalid limits: maxPricesInMemory=" + maxPricesInMemory
+                    + ", partitions=" + partitions);
+        }
+        this.directory = directory;
+        this.maxPricesInMemory = maxPricesInMemory;
+        this.partitioner = new PricePartitioner(partitions);
+        this.merger = merger;
+    }
+
+    /**
+     * Слияние цен по правилам {@link MergerService#mergePrices(List, List)}
+     *
+     * @param newPrices      Последовательность новых цен
+     * @param existingPrices Последовательность имеющихся цен
+     * @param consumer       Получатель объединённых цен
+     * @return Количество объединённых цен
+     */
+    public long merge(Iterator<Price> newPrices, Iterator<Price> existingPrices, Consumer<Price> consumer)
+            throws IOException {
+        final List<Price> newBuffer = new ArrayList<>();
+        final List<Price> existingBuffer = new ArrayList<>();
+        while (newPrices.hasNext() && newBuffer.size() <= maxPricesInMemory) {
+            newBuffer.add(newPrices.next());
+        }
+        while (existingPrices.hasNext() && newBuffer.size() + existingBuffer.size() <= maxPricesInMemory) {
+            existingBuffer.add(existingPrices.next());
+        }
+        if (!newPrices.hasNext() && !existingPrices.hasNext()
+                && newBuffer.size() + existingBuffer.size() <= maxPricesInMemory) {
+            return mergeInMemory(newBuffer, existingBuffer, consumer);
+        }
+
+        final Path spillDirectory = Files.createTempDirectory(directory, "merge-");
+        try {
+            final List<PricePartitioner.Partition> parts = partitioner.partition(spillDirectory, 0,
+                    concat(newBuffer, newPrices), concat(existingBuffer, existingPrices));
+            newBuffer.clear();
+            existingBuffer.clear();
+
+            long merged = 0;
+            for (PricePartitioner.Partition part : parts) {
+                merged += mergePartition(spillDirectory, part, consumer);
+            }
+            return merged;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            PricePartitioner.deleteDirectory(spillDirectory);
+        }
+    }
+
+    /**
+     * Слияние раздела в памяти или повторное разбиение, если раздел больше ограничения
+     */
+    private long mergePartition(Path spillDirectory, PricePartitioner.Partition part, Consumer<Price> consumer)
+            throws IOException {
+        try {
+            if (part.size() > maxPricesInMemory && part.canSplit()) {
+                long merged = 0;
+                for (PricePartitioner.Partition subpart : partitioner.split(spillDirectory, part)) {
+                    merged += mergePartition(spillDirectory, subpart, consumer);
+                }
+                return merged;
+            }
+            return mergeInMemory(PriceSpillFile.readAll(part.newPath), PriceSpillFile.readAll(part.existingPath),
+                    consumer);
+        } finally {
+            part.delete();
+        }
+    }
+
+    private long mergeInMemory(List<Price> newPrices, List<Price> existingPrices, Consumer<Price> consumer) {
+        final List<Price> mergedPrices = merger.mergePrices(newPrices, existingPrices);
+        mergedPrices.forEach(consumer);
+        return mergedPrices.size();
+    }
+
+    /**
+     * Последовательность цен буфера и оставшихся цен входа
+     */
+    private static Iterator<Price> concat(List<Price> buffer, Iterator<Price> rest) {
+        final Iterator<Price> head = buffer.iterator();
+        return new Iterator<Price>() {
+            @Override
+            public boolean hasNext() {
+                return head.hasNext() || rest.hasNext();
+            }
+
+            @Override
+            public Price next() {
+                return head.hasNext() ? head.next() : rest.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.svichkarev.pricemerger;
+
+/**
+ * Устойчивая сортировка слиянием массива индексов без упаковки в объекты.
+ * Буфер слияния переиспользуется между сортировками.
+ */
+abstract class IndexSorter {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private int[] buffer = new int[16];
+
+    /**
+     * Сравнение элементов по индексам
+     */
+    abstract int compare(int left, int right);
+
+    /**
+     * Сортировка первых элементов массива индексов
+     *
+     * @param indexes Массив индексов
+     * @param size    Количество сортируемых индексов
+     */
+    void sort(int[] indexes, int size) {
+        if (buffer.length < size) {
+            buffer = new int[Math.max(size, buffer.length * 2)];
+        }
+        for (int from = 0; from < size; from += INSERTION_SORT_THRESHOLD) {
+            insertionSort(indexes, from, Math.min(from + INSERTION_SORT_THRESHOLD, size));
+        }
+
+        int[] source = indexes;
+        int[] target = buffer;
+        for (int width = INSERTION_SORT_THRESHOLD; width < size; width *= 2) {
+            for (int from = 0; from < size; from += 2 * width) {
+                final int middle = Math.min(from + width, size);
+                final int to = Math.min(from + 2 * width, size);
+                merge(source, target, from, middle, to);
+            }
+            final int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != indexes) {
+            System.arraycopy(source, 0, indexes, 0, size);
+        }
+    }
+
+    private void insertionSort(int[] indexes, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            final int current = indexes[i];
+            int j = i - 1;
+            while (j >= from && compare(indexes[j], current) > 0) {
+                indexes[j + 1] = indexes[j];
+                j--;
+            }
+            indexes[j + 1] = current;
+        }
+    }
+
+    private void merge(int[] source, int[] target, int from, int middle, int to) {
+        int left = from;
+        int right = middle;
+        int i = from;
+        while (left < middle && right < to) {
+            // При равенстве берётся левый элемент - сортировка устойчива
+            if (compare(source[right], source[left]) < 0) {
+                target[i++] = source[right++];
+            } else {
+                target[i++] = source[left++];
+            }
+        }
+        while (left < middle) {
+            target[i++] = source[left++];
+        }
+        while (right < to) {
+            target[i++] = source[right++];
+        }
+    }
+
+    /**
+     * Массив индексов 0..size-1 с переиспользованием имеющегося массива
+     */
+    static int[] identity(int[] indexes, int size) {
+        final int[] result = indexes.length < size ? new int[Math.max(size, indexes.length * 2)] : indexes;
+        for (int i = 0; i < size; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+}
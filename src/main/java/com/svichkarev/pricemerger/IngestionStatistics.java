@@ -0,0 +1,118 @@
+package com.svichkarev.pricemerger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Статистика конвейера {@link PriceIngestionPipeline}: размеры пакетов и задержка от приёма цены
+ * до передачи получателю изменений, в которые она вошла.
+ *
+ * <p>Гистограммы хранят количество по степеням двойки: в корзину k попадают пакеты размером
+ * от 2^k до 2^(k+1) - 1 цен и цены с задержкой от 2^k до 2^(k+1) - 1 микросекунд.
+ * Экземпляр потокобезопасен.
+ */
+public class IngestionStatistics {
+
+    private static final int BUCKETS = Integer.SIZE;
+
+    private final LongAdder prices = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final AtomicLongArray batchSizeHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    void batchPublished(int size) {
+        batches.increment();
+        batchSizeHistogram.incrementAndGet(MergeStatistics.bucket(size));
+        largestBatch.accumulateAndGet(size, Math::max);
+    }
+
+    void pricePublished(long latency) {
+        prices.increment();
+        latencyNanos.add(latency);
+        latencyHistogram.incrementAndGet(MergeStatistics.bucket((int) Math.min(Integer.MAX_VALUE, latency / 1000)));
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * @return Количество опубликованных цен
+     */
+    public long getPrices() {
+        return prices.sum();
+    }
+
+    /**
+     * @return Количество опубликованных пакетов
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return Средний размер пакета
+     */
+    public double getAverageBatchSize() {
+        final long batchCount = getBatches();
+        return batchCount == 0 ? 0 : (double) getPrices() / batchCount;
+    }
+
+    /**
+     * @return Размер самого большого пакета
+     */
+    public int getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * @return Количество пакетов по корзинам степеней двойки размера
+     */
+    public long[] getBatchSizeHistogram() {
+        return histogram(batchSizeHistogram);
+    }
+
+    /**
+     * @return Средняя задержка цены в наносекундах
+     */
+    public long getAverageLatencyNanos() {
+        final long priceCount = getPrices();
+        return priceCount == 0 ? 0 : latencyNanos.sum() / priceCount;
+    }
+
+    /**
+     * @return Наибольшая задержка цены в наносекундах
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * @return Количество цен по корзинам степеней двойки задержки в микросекундах
+     */
+    public long[] getLatencyHistogram() {
+        return histogram(latencyHistogram);
+    }
+
+    private static long[] histogram(AtomicLongArray counters) {
+        final long[] histogram = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            histogram[bucket] = counters.get(bucket);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestionStatistics{" +
+                "prices=" + getPrices() +
+                ", batches=" + getBatches() +
+                ", averageBatchSize=" + String.format("%.1f", getAverageBatchSize()) +
+                ", largestBatch=" + getLargestBatch() +
+                ", averageLatency=" + getAverageLatencyNanos() / 1000 + "us" +
+                ", maxLatency=" + getMaxLatencyNanos() / 1000 + "us" +
+                '}';
+    }
+}
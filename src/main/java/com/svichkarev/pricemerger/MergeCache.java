@@ -0,0 +1,380 @@
+package com.svichkarev.pricemerger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Кэш результатов слияния общих групп цен между запусками.
+ *
+ * <p>Ключ - атрибуты группы и 64-битные хэши содержимого новых и имеющихся цен: начала, конца
+ * и значения каждой цены в порядке коллекции. Запись хранит копию этого содержимого в примитивном
+ * массиве, объединённые интервалы группы и количество отброшенных интервалов нулевой длины.
+ * При совпадении ключа содержимое группы сравнивается с копией, поэтому коллизия хэшей
+ * считается промахом, а не подменяет результат слияния. Повторная группа с тем же содержимым
+ * восстанавливается из кэша без сортировки и прохода по временным точкам.
+ *
+ * <p>Малые группы сливаются быстрее, чем вычисляется хэш и восстанавливаются цены из кэша,
+ * поэтому кэшируются только группы с количеством временных точек не меньше заданного.
+ *
+ * <p>Размер кэша ограничен оценкой занимаемой памяти, при превышении вытесняются давно
+ * не использованные группы. Кэш может быть сохранён в файл и загружен при следующем запуске,
+ * файл другой версии формата не загружается.
+ * Экземпляр потокобезопасен.
+ */
+public class MergeCache {
+
+    /**
+     * Наименьшее количество временных точек кэшируемой группы по умолчанию
+     */
+    public static final int DEFAULT_MIN_GROUP_POINTS = 32;
+
+    private static final int FILE_MAGIC = 0x50524D43;
+    private static final int FILE_VERSION = 2;
+
+    // Оценка памяти записи без содержимого массивов: ключ, запись, строка кода товара, два массива
+    // и элемент LinkedHashMap
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private final long maxBytes;
+    private final int minGroupPoints;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsage;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes Наибольшая оценка памяти, занимаемой кэшем, в байтах
+     */
+    public MergeCache(long maxBytes) {
+        this(maxBytes, DEFAULT_MIN_GROUP_POINTS);
+    }
+
+    /**
+     * @param maxBytes       Наибольшая оценка памяти, занимаемой кэшем, в байтах
+     * @param minGroupPoints Наименьшее количество временных точек кэшируемой группы
+     */
+    public MergeCache(long maxBytes, int minGroupPoints) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.minGroupPoints = minGroupPoints;
+    }
+
+    /**
+     * Загрузка кэша, сохранённого {@link #save(Path)}. Если файла нет или он сохранён
+     * в другой версии формата, кэш пустой.
+     *
+     * @param path           Файл кэша
+     * @param maxBytes       Наибольшая оценка памяти, занимаемой кэшем, в байтах
+     * @param minGroupPoints Наименьшее количество временных точек кэшируемой группы
+     * @return Кэш слияния
+     */
+    public static MergeCache load(Path path, long maxBytes, int minGroupPoints) throws IOException {
+        final MergeCache cache = new MergeCache(maxBytes, minGroupPoints);
+        if (!Files.exists(path)) {
+            return cache;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a merge cache file: " + path);
+            }
+            if (input.readInt() != FILE_VERSION) {
+                return cache;
+            }
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                final Key key = new Key(new MergerServiceImpl.PriceKey(input.readUTF(), input.readInt(), input.readInt()),
+                        input.readLong(), input.readLong());
+                final int newCount = input.readInt();
+                final int droppedIntervals = input.readInt();
+                final long[] prices = readLongs(input);
+                cache.put(key, new Entry(prices, newCount, readLongs(input), droppedIntervals));
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Сохранение кэша в файл. Записи сохраняются от давно использованных к недавним,
+     * поэтому загрузка восстанавливает порядок вытеснения.
+     *
+     * @param path Файл кэша
+     */
+    public synchronized void save(Path path) throws IOException {
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+                final Key key = mapEntry.getKey();
+                final Entry entry = mapEntry.getValue();
+                output.writeUTF(key.priceKey.productCode);
+                output.writeInt(key.priceKey.number);
+                output.writeInt(key.priceKey.depart);
+                output.writeLong(key.newHash);
+                output.writeLong(key.existingHash);
+                output.writeInt(entry.newCount);
+                output.writeInt(entry.droppedIntervals);
+                writeLongs(output, entry.prices);
+                writeLongs(output, entry.intervals);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Доля запросов, найденных в кэше
+     */
+    public synchronized double getHitRate() {
+        final long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Оценка памяти, занимаемой кэшем, в байтах
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * @return Количество групп в кэше
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * @return true, если группу нужно искать в кэше
+     */
+    boolean accepts(List<Price> newPrices, List<Price> existingPrices) {
+        return 2 * (newPrices.size() + existingPrices.size()) >= minGroupPoints;
+    }
+
+    /**
+     * Ключ кэша для группы цен
+     *
+     * @param newPrices      Новые цены группы
+     * @param existingPrices Имеющиеся цены группы
+     * @return Ключ кэша
+     */
+    static Key key(List<Price> newPrices, List<Price> existingPrices) {
+        return new Key(MergerServiceImpl.PriceKey.of(newPrices.get(0)), hash(newPrices), hash(existingPrices));
+    }
+
+    /**
+     * Запись кэша для группы цен. Запись с совпавшим ключом, но другим содержимым группы
+     * считается промахом.
+     *
+     * @param key            Ключ кэша
+     * @param newPrices      Новые цены группы
+     * @param existingPrices Имеющиеся цены группы
+     * @return Запись кэша или null, если группы нет в кэше
+     */
+    synchronized Entry get(Key key, List<Price> newPrices, List<Price> existingPrices) {
+        final Entry entry = entries.get(key);
+        if (entry == null || !entry.matches(newPrices, existingPrices)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /**
+     * Сохранение объединённых цен группы
+     *
+     * @param key              Ключ кэша
+     * @param newPrices        Новые цены группы
+     * @param existingPrices   Имеющиеся цены группы
+     * @param mergedPrices     Объединённые цены группы
+     * @param droppedIntervals Количество отброшенных при слиянии интервалов нулевой длины
+     */
+    void put(Key key, List<Price> newPrices, List<Price> existingPrices, List<Price> mergedPrices,
+             int droppedIntervals) {
+        final long[] prices = new long[3 * (newPrices.size() + existingPrices.size())];
+        copyIntervals(newPrices, prices, 0);
+        copyIntervals(existingPrices, prices, 3 * newPrices.size());
+        final long[] intervals = new long[3 * mergedPrices.size()];
+        copyIntervals(mergedPrices, intervals, 0);
+        put(key, new Entry(prices, newPrices.size(), intervals, droppedIntervals));
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        final Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            memoryUsage -= weight(key, previous);
+        }
+        memoryUsage += weight(key, entry);
+
+        final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (memoryUsage > maxBytes && eldest.hasNext()) {
+            final Map.Entry<Key, Entry> mapEntry = eldest.next();
+            memoryUsage -= weight(mapEntry.getKey(), mapEntry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(Key key, Entry entry) {
+        return ENTRY_OVERHEAD + 2L * key.priceKey.productCode.length()
+                + 8L * (entry.prices.length + entry.intervals.length);
+    }
+
+    private static void copyIntervals(List<Price> prices, long[] target, int offset) {
+        for (Price price : prices) {
+            target[offset++] = price.getBegin().getTime();
+            target[offset++] = price.getEnd().getTime();
+            target[offset++] = price.getValue();
+        }
+    }
+
+    private static long[] readLongs(DataInputStream input) throws IOException {
+        final long[] values = new long[input.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readLong();
+        }
+        return values;
+    }
+
+    private static void writeLongs(DataOutputStream output, long[] values) throws IOException {
+        output.writeInt(values.length);
+        for (long value : values) {
+            output.writeLong(value);
+        }
+    }
+
+    private static long hash(List<Price> prices) {
+        long hash = prices.size();
+        for (Price price : prices) {
+            hash = mix(hash + price.getBegin().getTime());
+            hash = mix(hash + price.getEnd().getTime());
+            hash = mix(hash + price.getValue());
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Ключ кэша: атрибуты группы и хэши содержимого новых и имеющихся цен
+     */
+    static final class Key {
+        final MergerServiceImpl.PriceKey priceKey;
+        final long newHash;
+        final long existingHash;
+
+        Key(MergerServiceImpl.PriceKey priceKey, long newHash, long existingHash) {
+            this.priceKey = priceKey;
+            this.newHash = newHash;
+            this.existingHash = existingHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return newHash == key.newHash &&
+                    existingHash == key.existingHash &&
+                    priceKey.equals(key.priceKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * priceKey.hashCode() + Long.hashCode(newHash * 31 + existingHash);
+        }
+    }
+
+    /**
+     * Запись кэша: копия содержимого группы и объединённые интервалы. Массивы не изменяются
+     * после создания записи, поэтому цены восстанавливаются вне блокировки кэша.
+     */
+    static final class Entry {
+        private final long[] prices; // новые, затем имеющиеся цены группы тройками: начало, конец, значение
+        private final int newCount; // количество новых цен группы
+        private final long[] intervals; // объединённые интервалы тройками: начало, конец, значение
+        private final int droppedIntervals; // количество отброшенных интервалов нулевой длины
+
+        Entry(long[] prices, int newCount, long[] intervals, int droppedIntervals) {
+            this.prices = prices;
+            this.newCount = newCount;
+            this.intervals = intervals;
+            this.droppedIntervals = droppedIntervals;
+        }
+
+        /**
+         * @return true, если запись сохранена для группы с тем же содержимым
+         */
+        boolean matches(List<Price> newPrices, List<Price> existingPrices) {
+            return newCount == newPrices.size()
+                    && prices.length == 3 * (newPrices.size() + existingPrices.size())
+                    && matches(newPrices, 0)
+                    && matches(existingPrices, 3 * newCount);
+        }
+
+        private boolean matches(List<Price> groupPrices, int offset) {
+            for (Price price : groupPrices) {
+                if (prices[offset++] != price.getBegin().getTime()
+                        || prices[offset++] != price.getEnd().getTime()
+                        || prices[offset++] != price.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Восстановление объединённых цен группы
+         *
+         * @param priceAttributes Общие атрибуты цен группы
+         * @return Объединённые цены
+         */
+        List<Price> restore(Price priceAttributes) {
+            final List<Price> mergedPrices = new ArrayList<>(intervals.length / 3);
+            for (int i = 0; i < intervals.length; i += 3) {
+                mergedPrices.add(new Price(priceAttributes.getProductCode(),
+                        priceAttributes.getNumber(), priceAttributes.getDepart(),
+                        new Date(intervals[i]), new Date(intervals[i + 1]), intervals[i + 2]));
+            }
+            return mergedPrices;
+        }
+
+        /**
+         * @return Количество отброшенных при слиянии интервалов нулевой длины
+         */
+        int getDroppedIntervals() {
+            return droppedIntervals;
+        }
+    }
+}
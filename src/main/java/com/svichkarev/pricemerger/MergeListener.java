@@ -0,0 +1,68 @@
+package com.svichkarev.pricemerger;
+
+/**
+ * <p>Получатель событий слияния цен для измерения производительности.
+ *
+ * <p>При параллельном слиянии методы вызываются из нескольких потоков одновременно,
+ * поэтому реализации должны быть потокобезопасными. Время этапов сортировки и восстановления
+ * суммируется по группам, а не измеряется от начала до конца слияния.
+ *
+ * <p>Все события передают {@link MergerService#mergePrices(java.util.List, java.util.List)} и слияние
+ * поколений {@link MergerService#mergePrices(java.util.List)}, в котором группа сливается с каждым
+ * следующим поколением отдельно. Потоковое слияние {@link MergerService#mergePrices(java.util.Iterator,
+ * java.util.Iterator, java.util.function.Consumer)} не делит цены на группы заранее и передаёт только
+ * сортировку, восстановление и {@link #groupMerged(int, int)} общих групп.
+ * {@link MergerService#mergePriceChanges(java.util.List, java.util.List)} событий не передаёт.
+ *
+ * <p>Группа, восстановленная из {@link MergeCache}, передаёт {@link #groupMerged(int, int)} с количеством
+ * точек и отброшенных интервалов, сохранёнными при её слиянии, но не передаёт время сортировки и восстановления.
+ */
+public interface MergeListener {
+
+    /**
+     * Получатель без действий. Сервис с таким получателем не измеряет время этапов.
+     */
+    MergeListener NONE = new MergeListener() {
+    };
+
+    /**
+     * Этапы слияния
+     */
+    enum Phase {
+        /** Разделение цен на группы по ключам */
+        GROUPING,
+        /** Выбор цен групп, которые не нужно сливать */
+        UNIQUE_EXTRACTION,
+        /** Сортировка временных точек общих групп */
+        SORT,
+        /** Восстановление цен из временных точек */
+        RESTORE
+    }
+
+    /**
+     * Завершение этапа слияния
+     *
+     * @param phase Этап
+     * @param nanos Время выполнения в наносекундах
+     */
+    default void phaseCompleted(Phase phase, long nanos) {
+    }
+
+    /**
+     * Разделение цен на группы
+     *
+     * @param uniqueGroups Количество групп только новых или только имеющихся цен
+     * @param commonGroups Количество групп, в которых цены нужно сливать
+     */
+    default void groupsDivided(int uniqueGroups, int commonGroups) {
+    }
+
+    /**
+     * Слияние общей группы цен
+     *
+     * @param points           Количество временных точек группы
+     * @param droppedIntervals Количество отброшенных интервалов нулевой длины
+     */
+    default void groupMerged(int points, int droppedIntervals) {
+    }
+}
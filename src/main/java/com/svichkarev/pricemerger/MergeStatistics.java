@@ -0,0 +1,109 @@
+package com.svichkarev.pricemerger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Накопление статистики слияний: время этапов, количество групп,
+ * гистограмма размеров общих групп и самая большая группа.
+ *
+ * <p>Гистограмма хранит количество групп по степеням двойки: в корзину k попадают группы
+ * с количеством временных точек от 2^k до 2^(k+1) - 1. Экземпляр потокобезопасен.
+ */
+public class MergeStatistics implements MergeListener {
+
+    private static final int BUCKETS = Integer.SIZE;
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final LongAdder uniqueGroups = new LongAdder();
+    private final LongAdder commonGroups = new LongAdder();
+    private final AtomicLongArray pointsHistogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder droppedIntervals = new LongAdder();
+    private final AtomicInteger largestGroupPoints = new AtomicInteger();
+
+    @Override
+    public void phaseCompleted(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    @Override
+    public void groupsDivided(int uniqueGroups, int commonGroups) {
+        this.uniqueGroups.add(uniqueGroups);
+        this.commonGroups.add(commonGroups);
+    }
+
+    @Override
+    public void groupMerged(int points, int droppedIntervals) {
+        pointsHistogram.incrementAndGet(bucket(points));
+        this.droppedIntervals.add(droppedIntervals);
+        largestGroupPoints.accumulateAndGet(points, Math::max);
+    }
+
+    /**
+     * @param phase Этап слияния
+     * @return Суммарное время этапа в наносекундах
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * @return Количество групп только новых или только имеющихся цен
+     */
+    public long getUniqueGroups() {
+        return uniqueGroups.sum();
+    }
+
+    /**
+     * @return Количество общих групп
+     */
+    public long getCommonGroups() {
+        return commonGroups.sum();
+    }
+
+    /**
+     * @return Количество общих групп по корзинам степеней двойки количества временных точек
+     */
+    public long[] getPointsHistogram() {
+        final long[] histogram = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            histogram[bucket] = pointsHistogram.get(bucket);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return Количество отброшенных интервалов нулевой длины
+     */
+    public long getDroppedIntervals() {
+        return droppedIntervals.sum();
+    }
+
+    /**
+     * @return Количество временных точек самой большой общей группы
+     */
+    public int getLargestGroupPoints() {
+        return largestGroupPoints.get();
+    }
+
+    static int bucket(int points) {
+        return points == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(points);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder phases = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            phases.append(phases.length() == 0 ? "" : ", ")
+                    .append(phase).append('=').append(getPhaseNanos(phase) / 1_000_000).append("ms");
+        }
+        return "MergeStatistics{" +
+                phases +
+                ", uniqueGroups=" + getUniqueGroups() +
+                ", commonGroups=" + getCommonGroups() +
+                ", droppedIntervals=" + getDroppedIntervals() +
+                ", largestGroupPoints=" + getLargestGroupPoints() +
+                '}';
+    }
+}
@@ -1,6 +1,8 @@
 package com.svichkarev.pricemerger;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface MergerService {
 
@@ -19,4 +21,45 @@ public interface MergerService {
      * @return Коллекция объединённых цен
      */
     List<Price> mergePrices(List<Price> newPrices, List<Price> existingPrices);
+
+    /**
+     * <p>Объединение нескольких поколений цен по правилам {@link #mergePrices(List, List)}:
+     * каждое следующее поколение новее предыдущего и сливается с результатом слияния предыдущих.
+     * Результат совпадает с последовательными вызовами
+     * {@code mergePrices(generations.get(i), result)} с точностью до порядка цен,
+     * но цены всех поколений разделяются на группы за один проход.
+     *
+     * @param generations Поколения цен от самого старого, например имеющихся цен, к самому новому
+     * @return Коллекция объединённых цен
+     */
+    List<Price> mergePrices(List<List<Price>> generations);
+
+    /**
+     * <p>Объединение цен по тем же правилам, что и {@link #mergePrices(List, List)},
+     * с результатом в виде изменений имеющихся цен:
+     * <p>имеющиеся цены, не изменённые слиянием, не попадают в результат;
+     * <p>укороченные или продлённые имеющиеся цены - изменённые с исходным идентификатором;
+     * <p>новые интервалы, в том числе части разделённой имеющейся цены, - добавляемые;
+     * <p>полностью перекрытые имеющиеся цены - удаляемые.
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     * @return Изменения имеющихся цен
+     */
+    PriceChanges mergePriceChanges(List<Price> newPrices, List<Price> existingPrices);
+
+    /**
+     * <p>Потоковое объединение цен по тем же правилам, что и {@link #mergePrices(List, List)}.
+     *
+     * <p>Обе последовательности должны быть упорядочены по коду товара, номеру цены, номеру отдела
+     * и началу действия. Группы цен с одинаковыми атрибутами объединяются сортировкой-слиянием
+     * и передаются получателю по одной, поэтому в памяти одновременно находится не больше
+     * одной группы каждой последовательности.
+     *
+     * @param newPrices      Упорядоченная последовательность новых цен
+     * @param existingPrices Упорядоченная последовательность имеющихся цен
+     * @param consumer       Получатель объединённых цен, упорядоченных по атрибутам
+     * @throws IllegalArgumentException если последовательность не упорядочена по атрибутам цен
+     */
+    void mergePrices(Iterator<Price> newPrices, Iterator<Price> existingPrices, Consumer<Price> consumer);
 }
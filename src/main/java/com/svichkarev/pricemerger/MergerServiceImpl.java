@@ -1,94 +1,394 @@
 package com.svichkarev.pricemerger;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 public class MergerServiceImpl implements MergerService {
 
+    /**
+     * Порог количества временных точек общих групп, начиная с которого слияние выполняется параллельно
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * Минимальное количество временных точек в одной параллельной задаче
+     */
+    private static final int MIN_CHUNK_POINTS = 1 << 12;
+
+    private final Executor executor; // исполнитель параллельного слияния, null - последовательное слияние
+    private final int parallelism; // ожидаемое количество параллельно работающих потоков
+    private final int parallelThreshold; // порог количества точек для параллельного слияния
+    private final MergeListener listener; // получатель событий слияния
+    private final boolean instrumented; // false - время этапов не измеряется
+    private final MergeCache cache; // кэш слияния общих групп, null - без кэша
+
+    /**
+     * Последовательное слияние цен
+     */
+    public MergerServiceImpl() {
+        this(MergeListener.NONE);
+    }
+
+    /**
+     * Последовательное слияние цен с измерением этапов
+     *
+     * @param listener Получатель событий слияния
+     */
+    public MergerServiceImpl(MergeListener listener) {
+        this(null, 1, Integer.MAX_VALUE, listener, null);
+    }
+
+    /**
+     * Последовательное слияние цен с кэшем результатов слияния общих групп
+     *
+     * @param cache Кэш слияния
+     */
+    public MergerServiceImpl(MergeCache cache) {
+        this(null, 1, Integer.MAX_VALUE, MergeListener.NONE, Objects.requireNonNull(cache));
+    }
+
+    /**
+     * Параллельное слияние групп цен в fork-join пуле
+     *
+     * @param pool Пул потоков для слияния групп
+     */
+    public MergerServiceImpl(ForkJoinPool pool) {
+        this(pool, pool.getParallelism(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Параллельное слияние групп цен на заданном исполнителе
+     *
+     * @param executor          Исполнитель задач слияния групп
+     * @param parallelism       Ожидаемое количество параллельно работающих потоков исполнителя
+     * @param parallelThreshold Количество временных точек общих групп, меньше которого слияние выполняется последовательно
+     */
+    public MergerServiceImpl(Executor executor, int parallelism, int parallelThreshold) {
+        this(executor, parallelism, parallelThreshold, MergeListener.NONE);
+    }
+
+    /**
+     * Параллельное слияние групп цен на заданном исполнителе с измерением этапов
+     *
+     * @param executor          Исполнитель задач слияния групп
+     * @param parallelism       Ожидаемое количество параллельно работающих потоков исполнителя
+     * @param parallelThreshold Количество временных точек общих групп, меньше которого слияние выполняется последовательно
+     * @param listener          Получатель событий слияния, вызывается из потоков исполнителя
+     */
+    public MergerServiceImpl(Executor executor, int parallelism, int parallelThreshold, MergeListener listener) {
+        this(Objects.requireNonNull(executor), parallelism, parallelThreshold, listener, null);
+    }
+
+    /**
+     * Параллельное слияние групп цен на заданном исполнителе с измерением этапов и кэшем
+     *
+     * @param executor          Исполнитель задач слияния групп, null - последовательное слияние
+     * @param parallelism       Ожидаемое количество параллельно работающих потоков исполнителя
+     * @param parallelThreshold Количество временных точек общих групп, меньше которого слияние выполняется последовательно
+     * @param listener          Получатель событий слияния, вызывается из потоков исполнителя
+     * @param cache             Кэш слияния общих групп, null - без кэша
+     */
+    public MergerServiceImpl(Executor executor, int parallelism, int parallelThreshold, MergeListener listener,
+                             MergeCache cache) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.parallelThreshold = parallelThreshold;
+        this.listener = Objects.requireNonNull(listener);
+        this.instrumented = listener != MergeListener.NONE;
+        this.cache = cache;
+    }
+
     /**
      * {@inheritDoc}
      */
     public List<Price> mergePrices(List<Price> newPrices, List<Price> existingPrices) {
-        final Map<PriceKey, List<Price>> newPricesMap = divideByPriceKey(newPrices);
-        final Map<PriceKey, List<Price>> existingPricesMap = divideByPriceKey(existingPrices);
+        long start = instrumented ? System.nanoTime() : 0;
+        final PriceKeyIndex priceGroups = divideByPriceKey(newPrices, existingPrices);
+        if (instrumented) {
+            start = phaseCompleted(MergeListener.Phase.GROUPING, start);
+        }
 
         // Сразу выбираем цены, которые не нужно сливать
         final List<Price> mergedPrices = new ArrayList<>(existingPrices.size());
-        mergedPrices.addAll(getUniquePrices(newPricesMap, existingPricesMap));
+        mergedPrices.addAll(getUniquePrices(priceGroups));
+        if (instrumented) {
+            phaseCompleted(MergeListener.Phase.UNIQUE_EXTRACTION, start);
+        }
 
-        mergedPrices.addAll(getSameAttributesMergedPrices(newPricesMap, existingPricesMap));
+        mergedPrices.addAll(getSameAttributesMergedPrices(priceGroups));
         return mergedPrices;
     }
 
     /**
-     * Разделение цен по ключам на группы для объединения
+     * {@inheritDoc}
+     */
+    public List<Price> mergePrices(List<List<Price>> generations) {
+        if (generations.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long start = instrumented ? System.nanoTime() : 0;
+
+        // Более новые поколения подряд как новые цены, самое старое - как имеющиеся
+        final List<Price> newerPrices = new ArrayList<>();
+        final int[] generationEnds = new int[generations.size() - 1];
+        for (int generation = 1; generation < generations.size(); generation++) {
+            newerPrices.addAll(generations.get(generation));
+            generationEnds[generation - 1] = newerPrices.size();
+        }
+        final PriceKeyIndex priceGroups = divideByPriceKey(newerPrices, generations.get(0));
+        if (instrumented) {
+            start = phaseCompleted(MergeListener.Phase.GROUPING, start);
+        }
+
+        // Группы, в которые входит одно поколение, сливать не нужно
+        final List<Price> mergedPrices = new ArrayList<>(newerPrices.size() + generations.get(0).size());
+        final List<List<List<Price>>> commonGenerations = new ArrayList<>();
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            final List<List<Price>> groupGenerations = new ArrayList<>();
+            if (priceGroups.getExistingCount(group) > 0) {
+                groupGenerations.add(priceGroups.getExistingPrices(group));
+            }
+            // Новые цены группы упорядочены по номеру, поэтому цены одного поколения идут подряд
+            final int[] indexes = priceGroups.getNewIndexes(group);
+            int generation = 0;
+            for (int from = 0; from < indexes.length; ) {
+                while (generationEnds[generation] <= indexes[from]) {
+                    generation++;
+                }
+                final List<Price> generationPrices = new ArrayList<>();
+                int to = from;
+                for (; to < indexes.length && indexes[to] < generationEnds[generation]; to++) {
+                    generationPrices.add(newerPrices.get(indexes[to]));
+                }
+                groupGenerations.add(generationPrices);
+                from = to;
+            }
+            if (groupGenerations.size() == 1) {
+                mergedPrices.addAll(groupGenerations.get(0));
+            } else {
+                commonGenerations.add(groupGenerations);
+            }
+        }
+        if (instrumented) {
+            phaseCompleted(MergeListener.Phase.UNIQUE_EXTRACTION, start);
+        }
+        listener.groupsDivided(priceGroups.getGroupCount() - commonGenerations.size(), commonGenerations.size());
+
+        final long[] groupPoints = new long[commonGenerations.size()];
+        for (int i = 0; i < groupPoints.length; i++) {
+            for (List<Price> generationPrices : commonGenerations.get(i)) {
+                groupPoints[i] += 2L * generationPrices.size();
+            }
+        }
+        mergedPrices.addAll(mergeGroups(groupPoints, i -> mergeGenerations(commonGenerations.get(i))));
+        return mergedPrices;
+    }
+
+    /**
+     * Последовательное слияние поколений цен одной группы
      *
-     * @param prices Коллекция цен
-     * @return Таблица групп цен по ключам
+     * @param groupGenerations Цены группы по поколениям от самого старого к самому новому
+     * @return Объединённые цены
      */
-    private Map<PriceKey, List<Price>> divideByPriceKey(List<Price> prices) {
-        final Map<PriceKey, List<Price>> map = new HashMap<>();
-        for (Price price : prices) {
-            final PriceKey key = new PriceKey(price.getProductCode(), price.getNumber(), price.getDepart());
-            if (!map.containsKey(key)) {
-                map.put(key, new ArrayList<>());
+    private List<Price> mergeGenerations(List<List<Price>> groupGenerations) {
+        List<Price> groupPrices = groupGenerations.get(0);
+        for (List<Price> generationPrices : groupGenerations.subList(1, groupGenerations.size())) {
+            groupPrices = mergeCommonPrices(generationPrices, groupPrices);
+        }
+        return groupPrices;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PriceChanges mergePriceChanges(List<Price> newPrices, List<Price> existingPrices) {
+        final PriceKeyIndex priceGroups = divideByPriceKey(newPrices, existingPrices);
+
+        final PriceChanges changes = new PriceChanges();
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            if (priceGroups.getExistingCount(group) == 0) {
+                for (Price newPrice : priceGroups.getNewPrices(group)) {
+                    changes.addInserted(newPrice);
+                }
+            } else if (priceGroups.getNewCount(group) > 0) {
+                mergeCommonPriceChanges(priceGroups.getNewPrices(group), priceGroups.getExistingPrices(group), changes);
             }
-            map.get(key).add(price);
         }
-        return map;
+        return changes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void mergePrices(Iterator<Price> newPrices, Iterator<Price> existingPrices, Consumer<Price> consumer) {
+        final PriceGroupIterator newGroups = new PriceGroupIterator(newPrices);
+        final PriceGroupIterator existingGroups = new PriceGroupIterator(existingPrices);
+
+        List<Price> newGroup = newGroups.nextGroup();
+        List<Price> existingGroup = existingGroups.nextGroup();
+        while (newGroup != null || existingGroup != null) {
+            final int order;
+            if (newGroup == null) {
+                order = 1;
+            } else if (existingGroup == null) {
+                order = -1;
+            } else {
+                order = PriceKey.of(newGroup.get(0)).compareTo(PriceKey.of(existingGroup.get(0)));
+            }
+
+            if (order < 0) {
+                newGroup.forEach(consumer);
+                newGroup = newGroups.nextGroup();
+            } else if (order > 0) {
+                existingGroup.forEach(consumer);
+                existingGroup = existingGroups.nextGroup();
+            } else {
+                mergeCommonPrices(newGroup, existingGroup).forEach(consumer);
+                newGroup = newGroups.nextGroup();
+                existingGroup = existingGroups.nextGroup();
+            }
+        }
+    }
+
+    /**
+     * Разделение цен по ключам на группы для объединения
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     * @return Группы новых и имеющихся цен по ключам
+     */
+    PriceKeyIndex divideByPriceKey(List<Price> newPrices, List<Price> existingPrices) {
+        return new PriceKeyIndex(newPrices, existingPrices);
     }
 
     /**
      * Получить цены, которые не нужно объединять среди новых и существующих
      *
-     * @param newPricesMap      Коллекция новых цен
-     * @param existingPricesMap Коллекция имеющихся цен
+     * @param priceGroups Группы новых и имеющихся цен
      * @return Коллекция неконфликтующих цен среди новых и существующих
      */
-    private List<Price> getUniquePrices(Map<PriceKey, List<Price>> newPricesMap,
-                                        Map<PriceKey, List<Price>> existingPricesMap) {
+    private List<Price> getUniquePrices(PriceKeyIndex priceGroups) {
         final List<Price> uniquePrices = new ArrayList<>();
-        for (PriceKey existingKey : existingPricesMap.keySet()) {
-            if (!newPricesMap.containsKey(existingKey)) {
-                uniquePrices.addAll(existingPricesMap.get(existingKey));
-            }
-        }
-        for (PriceKey newKey : newPricesMap.keySet()) {
-            if (!existingPricesMap.containsKey(newKey)) {
-                uniquePrices.addAll(newPricesMap.get(newKey));
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            if (priceGroups.getNewCount(group) == 0) {
+                uniquePrices.addAll(priceGroups.getExistingPrices(group));
+            } else if (priceGroups.getExistingCount(group) == 0) {
+                uniquePrices.addAll(priceGroups.getNewPrices(group));
             }
         }
-
         return uniquePrices;
     }
 
     /**
      * Слияние цен для групп цен с одинаковыми атрибутами
      *
-     * @param newPricesMap      Коллекция новых цен
-     * @param existingPricesMap Коллекция имеющихся цен
+     * @param priceGroups Группы новых и имеющихся цен
      * @return Объединённые цены
      */
-    private List<Price> getSameAttributesMergedPrices(Map<PriceKey, List<Price>> newPricesMap,
-                                                      Map<PriceKey, List<Price>> existingPricesMap) {
-        final List<Price> mergedPrices = new ArrayList<>();
-        for (Map.Entry<PriceKey, List<Price>> entry : newPricesMap.entrySet()) {
-            if (!existingPricesMap.containsKey(entry.getKey())) {
+    private List<Price> getSameAttributesMergedPrices(PriceKeyIndex priceGroups) {
+        final List<List<Price>> commonNewPrices = new ArrayList<>();
+        final List<List<Price>> commonExistingPrices = new ArrayList<>();
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            if (priceGroups.getNewCount(group) == 0 || priceGroups.getExistingCount(group) == 0) {
                 continue;
             }
-            final List<Price> commonNewPrices = entry.getValue();
-            final List<Price> commonExistingPrices = existingPricesMap.get(entry.getKey());
+            commonNewPrices.add(priceGroups.getNewPrices(group));
+            commonExistingPrices.add(priceGroups.getExistingPrices(group));
+        }
+        listener.groupsDivided(priceGroups.getGroupCount() - commonNewPrices.size(), commonNewPrices.size());
+
+        final long[] groupPoints = new long[commonNewPrices.size()];
+        for (int i = 0; i < groupPoints.length; i++) {
+            groupPoints[i] = pointsCount(commonNewPrices.get(i), commonExistingPrices.get(i));
+        }
+        return mergeGroups(groupPoints, i -> mergeCommonPrices(commonNewPrices.get(i), commonExistingPrices.get(i)));
+    }
 
-            mergedPrices.addAll(mergeCommonPrices(commonNewPrices, commonExistingPrices));
+    /**
+     * Слияние общих групп: последовательно или параллельно, если временных точек групп не меньше порога
+     *
+     * @param groupPoints Количество временных точек каждой группы
+     * @param groupMerger Слияние группы по её индексу
+     * @return Объединённые цены в порядке групп
+     */
+    private List<Price> mergeGroups(long[] groupPoints, IntFunction<List<Price>> groupMerger) {
+        long pointsCount = 0;
+        for (long points : groupPoints) {
+            pointsCount += points;
+        }
+        if (executor == null || pointsCount < parallelThreshold) {
+            return mergeGroups(groupMerger, 0, groupPoints.length);
+        }
+        return mergeGroupsInParallel(groupPoints, groupMerger, pointsCount);
+    }
+
+    /**
+     * Параллельное слияние групп цен.
+     * Группы разбиваются на последовательные порции примерно равного количества временных точек,
+     * результаты порций собираются в исходном порядке групп, поэтому совпадают с последовательным слиянием.
+     *
+     * @param groupPoints Количество временных точек каждой группы
+     * @param groupMerger Слияние группы по её индексу
+     * @param pointsCount Общее количество временных точек всех групп
+     * @return Объединённые цены
+     */
+    private List<Price> mergeGroupsInParallel(long[] groupPoints, IntFunction<List<Price>> groupMerger,
+                                              long pointsCount) {
+        // Несколько порций на поток сглаживают неравномерность размеров групп
+        final long chunkPoints = Math.max(MIN_CHUNK_POINTS, pointsCount / (parallelism * 4L));
+
+        final List<CompletableFuture<List<Price>>> chunks = new ArrayList<>();
+        int from = 0;
+        long currentPoints = 0;
+        for (int i = 0; i < groupPoints.length; i++) {
+            currentPoints += groupPoints[i];
+            if (currentPoints >= chunkPoints || i == groupPoints.length - 1) {
+                final int chunkFrom = from;
+                final int chunkTo = i + 1;
+                chunks.add(CompletableFuture.supplyAsync(() -> mergeGroups(groupMerger, chunkFrom, chunkTo), executor));
+                from = chunkTo;
+                currentPoints = 0;
+            }
+        }
+
+        final List<Price> mergedPrices = new ArrayList<>();
+        for (CompletableFuture<List<Price>> chunk : chunks) {
+            mergedPrices.addAll(chunk.join());
         }
         return mergedPrices;
     }
 
+    /**
+     * Последовательное слияние диапазона групп цен
+     *
+     * @param groupMerger Слияние группы по её индексу
+     * @param from        Индекс первой группы
+     * @param to          Индекс за последней группой
+     * @return Объединённые цены
+     */
+    private List<Price> mergeGroups(IntFunction<List<Price>> groupMerger, int from, int to) {
+        final List<Price> mergedPrices = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            mergedPrices.addAll(groupMerger.apply(i));
+        }
+        return mergedPrices;
+    }
+
+    /**
+     * Количество временных точек при слиянии группы - оценка стоимости слияния
+     */
+    private static long pointsCount(List<Price> newPrices, List<Price> existingPrices) {
+        return 2L * (newPrices.size() + existingPrices.size());
+    }
+
     /**
      * Слияние общих цен
      *
@@ -97,133 +397,262 @@ public class MergerServiceImpl implements MergerService {
      * @return Объединённые цены
      */
     List<Price> mergeCommonPrices(List<Price> newPrices, List<Price> existingPrices) {
-        List<PricePoint> pricePoints = getSortedPriceTimePoints(newPrices, existingPrices);
-        return restoreMergedPrices(pricePoints, newPrices.get(0));
+        if (newPrices.size() == 1) {
+            final List<Price> mergedPrices = mergeSingleNewPrice(newPrices.get(0), existingPrices);
+            if (mergedPrices != null) {
+                return mergedPrices;
+            }
+        }
+        if (cache == null || !cache.accepts(newPrices, existingPrices)) {
+            return sweepCommonPrices(newPrices, existingPrices, null);
+        }
+        final MergeCache.Key key = MergeCache.key(newPrices, existingPrices);
+        final MergeCache.Entry entry = cache.get(key, newPrices, existingPrices);
+        if (entry == null) {
+            return sweepCommonPrices(newPrices, existingPrices, key);
+        }
+        if (instrumented) {
+            listener.groupMerged(2 * (newPrices.size() + existingPrices.size()), entry.getDroppedIntervals());
+        }
+        return entry.restore(newPrices.get(0));
     }
 
     /**
-     * Разбиение интервалов цены на точки начала и конца действия цены
+     * Слияние общих цен проходом по временным точкам
      *
      * @param newPrices      Коллекция новых цен
      * @param existingPrices Коллекция имеющихся цен
-     * @return Отсортированный по времени список временных точек изменения цены
+     * @param cacheKey       Ключ кэша, под которым сохраняется результат, null - не сохранять
+     * @return Объединённые цены
      */
-    private List<PricePoint> getSortedPriceTimePoints(List<Price> newPrices, List<Price> existingPrices) {
-        List<PricePoint> pricePoints = new ArrayList<>(existingPrices.size() * 2);
-        for (Price newPrice : newPrices) {
-            pricePoints.add(new PricePoint(newPrice.getBegin(), PricePoint.Type.BEGIN, PricePoint.Generation.NEW, newPrice.getValue()));
-            pricePoints.add(new PricePoint(newPrice.getEnd(), PricePoint.Type.END, PricePoint.Generation.NEW, newPrice.getValue()));
+    private List<Price> sweepCommonPrices(List<Price> newPrices, List<Price> existingPrices, MergeCache.Key cacheKey) {
+        long start = instrumented ? System.nanoTime() : 0;
+        final PriceSweep sweep = getSortedPriceTimePoints(newPrices, existingPrices);
+        if (instrumented) {
+            start = phaseCompleted(MergeListener.Phase.SORT, start);
         }
-        for (Price existingPrice : existingPrices) {
-            pricePoints.add(new PricePoint(existingPrice.getBegin(), PricePoint.Type.BEGIN, PricePoint.Generation.EXISTING, existingPrice.getValue()));
-            pricePoints.add(new PricePoint(existingPrice.getEnd(), PricePoint.Type.END, PricePoint.Generation.EXISTING, existingPrice.getValue()));
+        final List<Price> mergedPrices = restoreMergedPrices(sweep, newPrices.get(0));
+        if (instrumented) {
+            phaseCompleted(MergeListener.Phase.RESTORE, start);
+            listener.groupMerged(sweep.getPointsCount(), sweep.getDroppedCount());
+        }
+        if (cacheKey != null) {
+            cache.put(cacheKey, newPrices, existingPrices, mergedPrices, sweep.getDroppedCount());
         }
-        pricePoints.sort(Comparator.comparing(p -> p.time));
-        return pricePoints;
+        return mergedPrices;
     }
 
     /**
-     * Восстановление цен из временных точек для получения объединённой коллекции цен
+     * <p>Слияние одной новой цены с упорядоченными непересекающимися имеющимися ценами без прохода
+     * по временным точкам. Результат и количество отброшенных интервалов совпадают с {@link PriceSweep}:
+     * <p>имеющиеся цены до начала и после конца новой цены не изменяются;
+     * <p>имеющаяся цена, начинающаяся раньше новой и дотягивающаяся до её начала, укорачивается до начала
+     * новой цены, а при одинаковом значении поглощает новую цену;
+     * <p>имеющаяся цена, заканчивающаяся позже новой, начинается с конца новой цены,
+     * даже при одинаковом значении;
+     * <p>остальные имеющиеся цены перекрыты новой ценой.
      *
-     * @param pricePoints     Отсортированный по времени список временных точек изменения цены
-     * @param priceAttributes Общие атрибуты цен
-     * @return Объединённая коллекция цен
+     * <p>Так за один проход без сортировки сливаются группы 1x1, 1xN и новая цена, перекрывающая имеющиеся.
+     *
+     * @param newPrice       Новая цена
+     * @param existingPrices Коллекция имеющихся цен
+     * @return Объединённые цены или null, если имеющиеся цены не упорядочены или пересекаются
      */
-    private List<Price> restoreMergedPrices(List<PricePoint> pricePoints, Price priceAttributes) {
-        final List<Price> mergedPrices = new ArrayList<>();
-        PricePoint begin = pricePoints.get(0);
-        for (int i = 1; i < pricePoints.size(); i++) {
-            final PricePoint current = pricePoints.get(i);
-            // Если начальная точка - это конец цены, а конечная - начало,
-            // тогда это временной промежуток между ценами - пропускаем
-            if (begin.type == PricePoint.Type.END
-                    && current.type == PricePoint.Type.BEGIN) {
-                begin = current;
+    private List<Price> mergeSingleNewPrice(Price newPrice, List<Price> existingPrices) {
+        final long begin = newPrice.getBegin().getTime();
+        final long end = newPrice.getEnd().getTime();
+        final long value = newPrice.getValue();
+        if (begin >= end || !isOrderedDisjoint(existingPrices)) {
+            return null;
+        }
+
+        final List<Price> mergedPrices = new ArrayList<>(existingPrices.size() + 2);
+        long newBegin = begin; // начало новой цены с учётом поглощения имеющейся ценой
+        boolean newAdded = false;
+        int droppedCount = 0;
+        for (Price existingPrice : existingPrices) {
+            final long existingBegin = existingPrice.getBegin().getTime();
+            final long existingEnd = existingPrice.getEnd().getTime();
+            final long existingValue = existingPrice.getValue();
+            if (existingEnd < begin || existingBegin >= end) {
+                if (!newAdded && existingBegin >= end) {
+                    addRestoredPrice(mergedPrices, newPrice, newBegin, end, value);
+                    newAdded = true;
+                }
+                addRestoredPrice(mergedPrices, newPrice, existingBegin, existingEnd, existingValue);
                 continue;
             }
 
-            // Новая ценовая точка с большим приоритетом
-            if (current.generation == PricePoint.Generation.NEW) {
-                if (current.value == begin.value && current.type == PricePoint.Type.BEGIN) {
-                    // Если значения одинаковы, но точка из новых, поднимаем приоритет
-                    begin.generation = PricePoint.Generation.NEW;
+            if (existingBegin < begin) {
+                if (existingValue == value) {
+                    newBegin = existingBegin;
                 } else {
-                    // Старая цена прерывается новой - добавляем интервал
-                    addRestoredPrice(mergedPrices, priceAttributes, begin, current, begin.value);
-                    begin = current;
+                    addRestoredPrice(mergedPrices, newPrice, existingBegin, begin, existingValue);
                 }
-            } else {
-                // Начало интервала и так новая цена - перекрывает старую цену - пропускаем
-                if (begin.generation == PricePoint.Generation.NEW
-                        && begin.type == PricePoint.Type.BEGIN) {
-                    continue;
+            }
+            if (existingEnd >= end) {
+                addRestoredPrice(mergedPrices, newPrice, newBegin, end, value);
+                newAdded = true;
+                if (existingEnd > end) {
+                    addRestoredPrice(mergedPrices, newPrice, end, existingEnd, existingValue);
+                } else {
+                    droppedCount++;
                 }
+            }
+        }
+        if (!newAdded) {
+            addRestoredPrice(mergedPrices, newPrice, newBegin, end, value);
+        }
 
-                // Цена определяется текущей точкой - окончание интервала или нет
-                long value = current.type == PricePoint.Type.END ? current.value : begin.value;
-                addRestoredPrice(mergedPrices, priceAttributes, begin, current, value);
+        if (instrumented) {
+            listener.groupMerged(2 * (1 + existingPrices.size()), droppedCount);
+        }
+        return mergedPrices;
+    }
 
-                begin = current;
+    /**
+     * Проверка, что цены упорядочены по времени, имеют ненулевую длину и не пересекаются
+     */
+    private static boolean isOrderedDisjoint(List<Price> prices) {
+        long lastEnd = Long.MIN_VALUE;
+        for (Price price : prices) {
+            final long begin = price.getBegin().getTime();
+            final long end = price.getEnd().getTime();
+            if (begin < lastEnd || begin >= end) {
+                return false;
             }
+            lastEnd = end;
         }
-        return mergedPrices;
+        return true;
     }
 
     /**
-     * Добавление восстановленного интервала действия цены
+     * Передача времени этапа получателю событий
      *
-     * @param mergedPrices    Коллекция цен после слияния
-     * @param priceAttributes Общие атрибуты цен
-     * @param begin           Время начала действия цены
-     * @param end             Время конца действия цены
-     * @param value           Значение цены
+     * @param phase Завершённый этап
+     * @param start Время начала этапа
+     * @return Время завершения этапа
      */
-    private void addRestoredPrice(List<Price> mergedPrices, Price priceAttributes, PricePoint begin, PricePoint end, long value) {
-        // Если интервал 0, не добавляем
-        if (end.time.equals(begin.time)) {
-            return;
-        }
-        mergedPrices.add(new Price(priceAttributes.getProductCode(),
-                priceAttributes.getNumber(), priceAttributes.getDepart(),
-                begin.time, end.time, value
-        ));
+    private long phaseCompleted(MergeListener.Phase phase, long start) {
+        final long end = System.nanoTime();
+        listener.phaseCompleted(phase, end - start);
+        return end;
     }
 
     /**
-     * Модель временной точки изменения цены
+     * Слияние общих цен с результатом в виде изменений имеющихся цен.
+     * Первый восстановленный интервал, отнесённый к имеющейся цене, наследует её идентификатор,
+     * остальные интервалы добавляются. Интервал новой цены относится к пересекающейся с ним
+     * имеющейся цене того же значения, поэтому повторно присланная цена не даёт изменений,
+     * а продлённая новой ценой - изменяется, а не удаляется.
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     * @param changes        Изменения имеющихся цен
      */
-    private static class PricePoint {
-        /**
-         * Тип точки - начало действия или конец
-         */
-        enum Type {
-            BEGIN, END
+    void mergeCommonPriceChanges(List<Price> newPrices, List<Price> existingPrices, PriceChanges changes) {
+        mergeCommonPriceChanges(newPrices, existingPrices, changes, null);
+    }
+
+    /**
+     * Слияние общих цен с результатом в виде изменений имеющихся цен и объединённых цен
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     * @param changes        Изменения имеющихся цен
+     * @param mergedPrices   Получатель объединённых цен с идентификаторами изменений в порядке времени, может быть null
+     */
+    void mergeCommonPriceChanges(List<Price> newPrices, List<Price> existingPrices, PriceChanges changes,
+                                 List<Price> mergedPrices) {
+        final PriceSweep sweep = getSortedPriceTimePoints(newPrices, existingPrices);
+        final Price priceAttributes = newPrices.get(0);
+        final Price[] restoredPrices = new Price[existingPrices.size()];
+        sweep.sweepAttributed((begin, end, value, source) -> {
+            final int existing = source - newPrices.size();
+            final Price restoredPrice;
+            if (existing < 0) {
+                restoredPrice = restoredPrice(newPrices.get(source).getId(), priceAttributes, begin, end, value);
+                changes.addInserted(restoredPrice);
+            } else if (restoredPrices[existing] == null) {
+                restoredPrice = restoredPrice(existingPrices.get(existing).getId(),
+                        priceAttributes, begin, end, value);
+                restoredPrices[existing] = restoredPrice;
+            } else {
+                // Имеющаяся цена разделена новой - оставшаяся часть добавляется
+                restoredPrice = restoredPrice(0, priceAttributes, begin, end, value);
+                changes.addInserted(restoredPrice);
+            }
+            if (mergedPrices != null) {
+                mergedPrices.add(restoredPrice);
+            }
+        });
+
+        for (int i = 0; i < existingPrices.size(); i++) {
+            if (restoredPrices[i] == null) {
+                changes.addDeleted(existingPrices.get(i));
+            } else if (!restoredPrices[i].equals(existingPrices.get(i))) {
+                changes.addUpdated(restoredPrices[i]);
+            }
         }
+    }
 
-        /**
-         * Новые цены или старые
-         */
-        enum Generation {
-            NEW, EXISTING
+    /**
+     * Разбиение интервалов цены на точки начала и конца действия цены
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     * @return Отсортированные по времени временные точки изменения цены
+     */
+    PriceSweep getSortedPriceTimePoints(List<Price> newPrices, List<Price> existingPrices) {
+        final PriceSweep sweep = new PriceSweep(newPrices.size() + existingPrices.size());
+        for (Price newPrice : newPrices) {
+            sweep.addNew(newPrice.getBegin().getTime(), newPrice.getEnd().getTime(), newPrice.getValue());
         }
+        for (Price existingPrice : existingPrices) {
+            sweep.addExisting(existingPrice.getBegin().getTime(), existingPrice.getEnd().getTime(),
+                    existingPrice.getValue());
+        }
+        sweep.sort();
+        return sweep;
+    }
 
-        private Date time;
-        private Type type;
-        private Generation generation;
-        private long value;
+    /**
+     * Восстановление цен из временных точек для получения объединённой коллекции цен
+     *
+     * @param sweep           Отсортированные по времени временные точки изменения цены
+     * @param priceAttributes Общие атрибуты цен
+     * @return Объединённая коллекция цен
+     */
+    List<Price> restoreMergedPrices(PriceSweep sweep, Price priceAttributes) {
+        final List<Price> mergedPrices = new ArrayList<>();
+        sweep.sweep((begin, end, value, source) -> addRestoredPrice(mergedPrices, priceAttributes, begin, end, value));
+        return mergedPrices;
+    }
 
-        PricePoint(Date time, Type type, Generation generation, long value) {
-            this.time = time;
-            this.type = type;
-            this.generation = generation;
-            this.value = value;
-        }
+    /**
+     * Добавление восстановленного интервала действия цены
+     *
+     * @param mergedPrices    Коллекция цен после слияния
+     * @param priceAttributes Общие атрибуты цен
+     * @param begin           Время начала действия цены
+     * @param end             Время конца действия цены
+     * @param value           Значение цены
+     */
+    private void addRestoredPrice(List<Price> mergedPrices, Price priceAttributes, long begin, long end, long value) {
+        mergedPrices.add(restoredPrice(0, priceAttributes, begin, end, value));
+    }
+
+    private static Price restoredPrice(long id, Price priceAttributes, long begin, long end, long value) {
+        return new Price(id, priceAttributes.getProductCode(),
+                priceAttributes.getNumber(), priceAttributes.getDepart(),
+                new Date(begin), new Date(end), value
+        );
     }
 
     /**
      * Ключ цены для выделения группу цен для объединения
      */
-    private class PriceKey {
+    static class PriceKey implements Comparable<PriceKey> {
         String productCode; // код товара
         int number; // номер цены
         int depart; // номер отдела
@@ -234,6 +663,22 @@ public class MergerServiceImpl implements MergerService {
             this.depart = depart;
         }
 
+        static PriceKey of(Price price) {
+            return new PriceKey(price.getProductCode(), price.getNumber(), price.getDepart());
+        }
+
+        @Override
+        public int compareTo(PriceKey o) {
+            int result = productCode.compareTo(o.productCode);
+            if (result == 0) {
+                result = Integer.compare(number, o.number);
+            }
+            if (result == 0) {
+                result = Integer.compare(depart, o.depart);
+            }
+            return result;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -246,7 +691,49 @@ public class MergerServiceImpl implements MergerService {
 
         @Override
         public int hashCode() {
-            return Objects.hash(productCode, number, depart);
+            // То же значение, что Objects.hash(productCode, number, depart), без упаковки аргументов
+            return ((31 + productCode.hashCode()) * 31 + number) * 31 + depart;
+        }
+    }
+
+    /**
+     * Итератор групп цен с одинаковыми атрибутами из упорядоченной по атрибутам последовательности
+     */
+    private static class PriceGroupIterator {
+        private final Iterator<Price> prices;
+        private Price next; // первая цена следующей группы
+        private PriceKey lastKey; // ключ последней выданной группы
+
+        PriceGroupIterator(Iterator<Price> prices) {
+            this.prices = prices;
+            this.next = prices.hasNext() ? prices.next() : null;
+        }
+
+        /**
+         * @return Следующая группа цен или null, если цены закончились
+         */
+        List<Price> nextGroup() {
+            if (next == null) {
+                return null;
+            }
+            final PriceKey key = PriceKey.of(next);
+            if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                throw new IllegalArgumentException("Prices are not ordered by attributes: " + next);
+            }
+
+            final List<Price> group = new ArrayList<>();
+            group.add(next);
+            next = null;
+            while (prices.hasNext()) {
+                final Price price = prices.next();
+                if (!key.equals(PriceKey.of(price))) {
+                    next = price;
+                    break;
+                }
+                group.add(price);
+            }
+            lastKey = key;
+            return group;
         }
     }
 }
@@ -0,0 +1,453 @@
+package com.svichkarev.pricemerger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>Хранилище объединённых цен вне кучи для больших каталогов.
+ *
+ * <p>Интервалы хранятся записями фиксированной длины в прямых буферах, выделяемых блоками:
+ * <pre>
+ * id:long begin:long end:long value:long - 32 байта
+ * </pre>
+ * Записи группы с одинаковыми атрибутами занимают непрерывную область с небольшим запасом.
+ * Атрибуты групп, коды товаров номерами словаря, и положение областей хранятся в таблице групп
+ * на примитивных массивах с открытой адресацией - около 40 байт кучи на группу независимо
+ * от количества цен в ней.
+ *
+ * <p>При слиянии имеющиеся цены группы читаются из буферов прямо в {@link PriceSweep},
+ * а результат записывается на место области, если помещается в неё, или в новую область в конце.
+ * Освобождённые области учитываются как мусор и возвращаются уплотнением {@link #compact()}.
+ * Восстановленные интервалы получают идентификаторы цен так же, как изменения
+ * {@link MergerService#mergePriceChanges(List, List)}.
+ * Объекты {@link Price} создаются только по запросу цен.
+ *
+ * <p>Память буферов освобождается сборщиком мусора вместе с хранилищем. Экземпляр не потокобезопасен.
+ */
+public class OffHeapPriceStore {
+
+    static final int RECORD_SIZE = 32;
+    public static final int DEFAULT_CHUNK_RECORDS = 1 << 20; // 32 МиБ в блоке
+
+    private static final int EMPTY = -1;
+    private static final int ID = 0;
+    private static final int BEGIN = 8;
+    private static final int END = 16;
+    private static final int VALUE = 24;
+
+    private final ProductCodeDictionary dictionary;
+    private final int chunkShift;
+    private final long chunkMask;
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private long nextRecord; // первая свободная запись в конце
+    private long size; // количество цен
+    private long garbageRecords; // записи освобождённых областей
+
+    // Таблица групп
+    private int[] table = newTable(16); // номер группы в ячейке или EMPTY
+    private int keyCount;
+    private int[] productCodes = new int[8];
+    private int[] numbers = new int[8];
+    private int[] departs = new int[8];
+    private long[] firstRecords = new long[8];
+    private int[] counts = new int[8];
+    private int[] capacities = new int[8];
+
+    private final PriceSweep sweep = new PriceSweep();
+    private final GroupWriter groupWriter = new GroupWriter();
+    private final KeySorter keySorter = new KeySorter();
+    private int[] order = new int[16];
+
+    /**
+     * Пустое хранилище со своим словарём кодов товаров
+     */
+    public OffHeapPriceStore() {
+        this(new ProductCodeDictionary(), DEFAULT_CHUNK_RECORDS);
+    }
+
+    /**
+     * @param dictionary   Словарь кодов товаров, общий с наборами новых цен
+     * @param chunkRecords Количество записей в блоке, степень двойки не больше 2^25
+     */
+    public OffHeapPriceStore(ProductCodeDictionary dictionary, int chunkRecords) {
+        if (Integer.bitCount(chunkRecords) != 1 || chunkRecords > 1 << 25) {
+            throw new IllegalArgumentException("Invalid chunk records: " + chunkRecords);
+        }
+        this.dictionary = dictionary;
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkRecords);
+        this.chunkMask = chunkRecords - 1;
+    }
+
+    /**
+     * Слияние новых цен с ценами хранилища по правилам {@link MergerService#mergePrices(List, List)}
+     *
+     * @param newPrices Коллекция новых цен
+     */
+    public void merge(List<Price> newPrices) {
+        merge(PriceBatch.of(newPrices, dictionary));
+    }
+
+    /**
+     * Слияние новых цен с ценами хранилища по правилам {@link MergerService#mergePrices(List, List)}
+     *
+     * @param newPrices Набор новых цен
+     * @throws IllegalArgumentException если набор использует другой словарь кодов товаров
+     */
+    public void merge(PriceBatch newPrices) {
+        if (newPrices.getDictionary() != dictionary) {
+            throw new IllegalArgumentException("Price batch must share product code dictionary");
+        }
+        final int[] keys = new int[newPrices.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = findOrAddKey(newPrices.getProductCode(i), newPrices.getNumber(i), newPrices.getDepart(i));
+        }
+
+        // Устойчивая сортировка сохраняет исходный порядок цен внутри группы
+        order = IndexSorter.identity(order, keys.length);
+        keySorter.keys = keys;
+        keySorter.sort(order, keys.length);
+        keySorter.keys = null;
+
+        int from = 0;
+        while (from < keys.length) {
+            int to = from + 1;
+            while (to < keys.length && keys[order[to]] == keys[order[from]]) {
+                to++;
+            }
+            mergeGroup(keys[order[from]], newPrices, from, to);
+            from = to;
+        }
+    }
+
+    /**
+     * Цены группы с заданными атрибутами
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @return Цены группы в порядке хранения
+     */
+    public List<Price> getPrices(String productCode, int number, int depart) {
+        final int code = dictionary.indexOf(productCode);
+        final int key = code == EMPTY ? EMPTY : findKey(code, number, depart);
+        return key == EMPTY ? new ArrayList<>() : addPrices(key, new ArrayList<>(counts[key]));
+    }
+
+    /**
+     * @return Все цены хранилища
+     */
+    public List<Price> getPrices() {
+        final List<Price> prices = new ArrayList<>((int) Math.min(Integer.MAX_VALUE, size));
+        for (int key = 0; key < keyCount; key++) {
+            addPrices(key, prices);
+        }
+        return prices;
+    }
+
+    /**
+     * @return Количество цен
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return Количество групп с одинаковыми атрибутами
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return Количество записей в освобождённых областях
+     */
+    public long getGarbageRecords() {
+        return garbageRecords;
+    }
+
+    /**
+     * @return Размер выделенных буферов в байтах
+     */
+    public long getMemoryUsage() {
+        return (long) chunks.size() * (chunkMask + 1) * RECORD_SIZE;
+    }
+
+    /**
+     * Уплотнение: области групп переписываются подряд в новые буферы без освобождённых областей
+     */
+    public void compact() {
+        final List<ByteBuffer> oldChunks = chunks;
+        chunks = new ArrayList<>();
+        nextRecord = 0;
+        garbageRecords = 0;
+        for (int key = 0; key < keyCount; key++) {
+            final long oldFirst = firstRecords[key];
+            capacities[key] = regionCapacity(counts[key]);
+            firstRecords[key] = allocate(capacities[key]);
+            for (int i = 0; i < counts[key]; i++) {
+                final ByteBuffer chunk = oldChunks.get(chunk(oldFirst + i));
+                final int offset = offset(oldFirst + i);
+                putRecord(firstRecords[key] + i, chunk.getLong(offset + ID), chunk.getLong(offset + BEGIN),
+                        chunk.getLong(offset + END), chunk.getLong(offset + VALUE));
+            }
+        }
+    }
+
+    /**
+     * Передача цен группы как имеющихся для слияния без создания объектов
+     *
+     * @param key   Номер группы
+     * @param sweep Слияние группы цен
+     */
+    void addExisting(int key, PriceSweep sweep) {
+        final long to = firstRecords[key] + counts[key];
+        for (long record = firstRecords[key]; record < to; record++) {
+            sweep.addExisting(getLong(record, BEGIN), getLong(record, END), getLong(record, VALUE));
+        }
+    }
+
+    /**
+     * Слияние новых цен одной группы
+     *
+     * @param key       Номер группы
+     * @param newPrices Набор новых цен
+     * @param from      Начало цен группы в упорядоченных индексах
+     * @param to        Конец цен группы в упорядоченных индексах
+     */
+    private void mergeGroup(int key, PriceBatch newPrices, int from, int to) {
+        if (counts[key] == 0) {
+            // Новая группа - цены добавляются без слияния
+            reserve(key, to - from);
+            for (int i = from; i < to; i++) {
+                final int index = order[i];
+                putRecord(firstRecords[key] + i - from, newPrices.getId(index),
+                        newPrices.getBegin(index), newPrices.getEnd(index), newPrices.getValue(index));
+            }
+            counts[key] = to - from;
+            size += to - from;
+            return;
+        }
+
+        final int newCount = to - from;
+        groupWriter.start(newCount, newCount + counts[key]);
+        sweep.clear();
+        for (int i = from; i < to; i++) {
+            final int index = order[i];
+            sweep.addNew(newPrices.getBegin(index), newPrices.getEnd(index), newPrices.getValue(index));
+            groupWriter.sourceIds[i - from] = newPrices.getId(index);
+        }
+        addExisting(key, sweep);
+        for (int i = 0; i < counts[key]; i++) {
+            groupWriter.sourceIds[newCount + i] = getLong(firstRecords[key] + i, ID);
+        }
+        sweep.sort();
+        sweep.sweepAttributed(groupWriter);
+
+        // Интервалы уже скопированы в проход, поэтому область можно перезаписывать
+        final int mergedCount = groupWriter.size;
+        size += mergedCount - counts[key];
+        if (mergedCount > capacities[key]) {
+            garbageRecords += capacities[key];
+            reserve(key, mergedCount);
+        }
+        for (int i = 0; i < mergedCount; i++) {
+            putRecord(firstRecords[key] + i, groupWriter.ids[i], groupWriter.begins[i], groupWriter.ends[i],
+                    groupWriter.values[i]);
+        }
+        counts[key] = mergedCount;
+    }
+
+    /**
+     * Выделение группе новой области в конце для заданного количества цен
+     */
+    private void reserve(int key, int count) {
+        capacities[key] = regionCapacity(count);
+        firstRecords[key] = allocate(capacities[key]);
+    }
+
+    /**
+     * Ёмкость области с запасом на разделение цен следующими слияниями
+     */
+    private static int regionCapacity(int count) {
+        return count + Math.max(2, count >> 3);
+    }
+
+    private long allocate(int records) {
+        final long first = nextRecord;
+        nextRecord += records;
+        while ((long) chunks.size() << chunkShift < nextRecord) {
+            chunks.add(ByteBuffer.allocateDirect((int) (chunkMask + 1) * RECORD_SIZE).order(ByteOrder.nativeOrder()));
+        }
+        return first;
+    }
+
+    private List<Price> addPrices(int key, List<Price> prices) {
+        final String productCode = dictionary.get(productCodes[key]);
+        final long to = firstRecords[key] + counts[key];
+        for (long record = firstRecords[key]; record < to; record++) {
+            prices.add(new Price(getLong(record, ID), productCode, numbers[key], departs[key],
+                    new Date(getLong(record, BEGIN)), new Date(getLong(record, END)), getLong(record, VALUE)));
+        }
+        return prices;
+    }
+
+    private void putRecord(long record, long id, long begin, long end, long value) {
+        final ByteBuffer chunk = chunks.get(chunk(record));
+        final int offset = offset(record);
+        chunk.putLong(offset + ID, id);
+        chunk.putLong(offset + BEGIN, begin);
+        chunk.putLong(offset + END, end);
+        chunk.putLong(offset + VALUE, value);
+    }
+
+    private long getLong(long record, int field) {
+        return chunks.get(chunk(record)).getLong(offset(record) + field);
+    }
+
+    private int chunk(long record) {
+        return (int) (record >>> chunkShift);
+    }
+
+    private int offset(long record) {
+        return (int) (record & chunkMask) * RECORD_SIZE;
+    }
+
+    private int findKey(int code, int number, int depart) {
+        final int mask = table.length - 1;
+        for (int slot = hash(code, number, depart) & mask; ; slot = (slot + 1) & mask) {
+            final int key = table[slot];
+            if (key == EMPTY || productCodes[key] == code && numbers[key] == number && departs[key] == depart) {
+                return key;
+            }
+        }
+    }
+
+    private int findOrAddKey(int code, int number, int depart) {
+        final int mask = table.length - 1;
+        int slot = hash(code, number, depart) & mask;
+        while (table[slot] != EMPTY) {
+            final int key = table[slot];
+            if (productCodes[key] == code && numbers[key] == number && departs[key] == depart) {
+                return key;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (keyCount == productCodes.length) {
+            final int capacity = keyCount * 2;
+            productCodes = Arrays.copyOf(productCodes, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            departs = Arrays.copyOf(departs, capacity);
+            firstRecords = Arrays.copyOf(firstRecords, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            capacities = Arrays.copyOf(capacities, capacity);
+        }
+        final int key = keyCount++;
+        productCodes[key] = code;
+        numbers[key] = number;
+        departs[key] = depart;
+        table[slot] = key;
+
+        // Заполнение таблицы не больше половины
+        if (2 * keyCount > table.length) {
+            rehash();
+        }
+        return key;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        final int mask = table.length - 1;
+        for (int key = 0; key < keyCount; key++) {
+            int slot = hash(productCodes[key], numbers[key], departs[key]) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = key;
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        final int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(int code, int number, int depart) {
+        int hash = code * 0x9E3779B9 + number;
+        hash = hash * 0x9E3779B9 + depart;
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+
+    /**
+     * Сортировка индексов новых цен по номеру группы
+     */
+    private static class KeySorter extends IndexSorter {
+        int[] keys;
+
+        @Override
+        int compare(int left, int right) {
+            return Integer.compare(keys[left], keys[right]);
+        }
+    }
+
+    /**
+     * Накопление восстановленных интервалов группы в переиспользуемых массивах.
+     * Идентификаторы назначаются как в {@link MergerServiceImpl#mergeCommonPriceChanges(List, List, PriceChanges)}:
+     * интервал новой цены получает её идентификатор, первый интервал имеющейся цены - идентификатор
+     * имеющейся цены, остальные интервалы - 0.
+     */
+    private static class GroupWriter implements PriceSweep.IntervalConsumer {
+        long[] sourceIds = new long[16]; // идентификаторы цен группы по индексу в проходе
+        private boolean[] inherited = new boolean[16]; // идентификатор имеющейся цены уже получен интервалом
+        private int newCount;
+        long[] ids = new long[16];
+        long[] begins = new long[16];
+        long[] ends = new long[16];
+        long[] values = new long[16];
+        int size;
+
+        /**
+         * Начало группы
+         *
+         * @param newCount   Количество новых цен
+         * @param priceCount Количество всех цен
+         */
+        void start(int newCount, int priceCount) {
+            if (sourceIds.length < priceCount) {
+                sourceIds = new long[Math.max(priceCount, sourceIds.length * 2)];
+                inherited = new boolean[sourceIds.length];
+            }
+            Arrays.fill(inherited, 0, priceCount, false);
+            this.newCount = newCount;
+            size = 0;
+        }
+
+        @Override
+        public void accept(long begin, long end, long value, int source) {
+            if (size == begins.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                begins = Arrays.copyOf(begins, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (source < newCount || !inherited[source]) {
+                inherited[source] = true;
+                ids[size] = sourceIds[source];
+            } else {
+                // Имеющаяся цена разделена новой - оставшаяся часть получает новую запись
+                ids[size] = 0;
+            }
+            begins[size] = begin;
+            ends[size] = end;
+            values[size] = value;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Колоночное представление набора цен на примитивных массивах.
+ * Время хранится в миллисекундах эпохи, коды товаров - номерами в общем словаре.
+ */
+public class PriceBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final ProductCodeDictionary dictionary;
+    private int size;
+
+    private long[] ids; // идентификаторы в БД
+    private int[] productCodes; // номера кодов товаров в словаре
+    private int[] numbers; // номера цен
+    private int[] departs; // номера отделов
+    private long[] begins; // начала действия
+    private long[] ends; // концы действия
+    private long[] values; // значения цен в копейках
+
+    public PriceBatch(ProductCodeDictionary dictionary) {
+        this(dictionary, DEFAULT_CAPACITY);
+    }
+
+    public PriceBatch(ProductCodeDictionary dictionary, int capacity) {
+        this.dictionary = dictionary;
+        final int initialCapacity = Math.max(1, capacity);
+        ids = new long[initialCapacity];
+        productCodes = new int[initialCapacity];
+        numbers = new int[initialCapacity];
+        departs = new int[initialCapacity];
+        begins = new long[initialCapacity];
+        ends = new long[initialCapacity];
+        values = new long[initialCapacity];
+    }
+
+    /**
+     * Преобразование коллекции цен в колоночное представление
+     *
+     * @param prices     Коллекция цен
+     * @param dictionary Словарь кодов товаров
+     * @return Набор цен
+     */
+    public static PriceBatch of(List<Price> prices, ProductCodeDictionary dictionary) {
+        final PriceBatch batch = new PriceBatch(dictionary, prices.size());
+        for (Price price : prices) {
+            batch.add(price);
+        }
+        return batch;
+    }
+
+    /**
+     * Добавление цены
+     *
+     * @param price Цена
+     */
+    public void add(Price price) {
+        add(price.getId(), dictionary.intern(price.getProductCode()), price.getNumber(), price.getDepart(),
+                price.getBegin().getTime(), price.getEnd().getTime(), price.getValue());
+    }
+
+    /**
+     * Добавление цены
+     *
+     * @param id          Идентификатор в БД
+     * @param productCode Номер кода товара в словаре
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @param begin       Начало действия в миллисекундах эпохи
+     * @param end         Конец действия в миллисекундах эпохи
+     * @param value       Значение цены в копейках
+     */
+    public void add(long id, int productCode, int number, int depart, long begin, long end, long value) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        productCodes[size] = productCode;
+        numbers[size] = number;
+        departs[size] = depart;
+        begins[size] = begin;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Удаление всех цен с сохранением выделенной памяти
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Преобразование в коллекцию цен
+     *
+     * @return Коллекция цен
+     */
+    public List<Price> toPrices() {
+        final List<Price> prices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            prices.add(toPrice(i));
+        }
+        return prices;
+    }
+
+    /**
+     * @param index Индекс цены
+     * @return Цена
+     */
+    public Price toPrice(int index) {
+        return new Price(ids[index], dictionary.get(productCodes[index]), numbers[index], departs[index],
+                new Date(begins[index]), new Date(ends[index]), values[index]);
+    }
+
+    public ProductCodeDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public int getProductCode(int index) {
+        return productCodes[index];
+    }
+
+    public int getNumber(int index) {
+        return numbers[index];
+    }
+
+    public int getDepart(int index) {
+        return departs[index];
+    }
+
+    public long getBegin(int index) {
+        return begins[index];
+    }
+
+    public long getEnd(int index) {
+        return ends[index];
+    }
+
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    private void grow() {
+        final int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        productCodes = Arrays.copyOf(productCodes, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+        departs = Arrays.copyOf(departs, capacity);
+        begins = Arrays.copyOf(begins, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}
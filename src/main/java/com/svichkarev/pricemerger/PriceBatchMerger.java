@@ -0,0 +1,157 @@
+package com.svichkarev.pricemerger;
+
+/**
+ * Объединение цен в колоночном представлении по правилам {@link MergerService#mergePrices(java.util.List, java.util.List)}.
+ * Рабочие массивы переиспользуются между вызовами, поэтому после прогрева слияние
+ * практически не выделяет память на каждую цену. Экземпляр не потокобезопасен.
+ */
+public class PriceBatchMerger {
+
+    private final PriceSweep sweep = new PriceSweep();
+    private final GroupWriter groupWriter = new GroupWriter();
+    private final AttributeSorter attributeSorter = new AttributeSorter();
+
+    private int[] newOrder = new int[16];
+    private int[] existingOrder = new int[16];
+
+    /**
+     * Объединение цен
+     *
+     * @param newPrices      Новые цены
+     * @param existingPrices Имеющиеся цены
+     * @param output         Набор для объединённых цен, предыдущее содержимое удаляется
+     * @throws IllegalArgumentException если наборы используют разные словари кодов товаров
+     */
+    public void merge(PriceBatch newPrices, PriceBatch existingPrices, PriceBatch output) {
+        if (newPrices.getDictionary() != existingPrices.getDictionary()
+                || newPrices.getDictionary() != output.getDictionary()) {
+            throw new IllegalArgumentException("Price batches must share product code dictionary");
+        }
+        output.clear();
+
+        newOrder = sortByAttributes(newPrices, newOrder);
+        existingOrder = sortByAttributes(existingPrices, existingOrder);
+
+        int newFrom = 0;
+        int existingFrom = 0;
+        while (newFrom < newPrices.size() || existingFrom < existingPrices.size()) {
+            final int newTo = groupEnd(newPrices, newOrder, newFrom);
+            final int existingTo = groupEnd(existingPrices, existingOrder, existingFrom);
+
+            final int order;
+            if (newFrom == newPrices.size()) {
+                order = 1;
+            } else if (existingFrom == existingPrices.size()) {
+                order = -1;
+            } else {
+                order = compareAttributes(newPrices, newOrder[newFrom], existingPrices, existingOrder[existingFrom]);
+            }
+
+            if (order < 0) {
+                copy(newPrices, newOrder, newFrom, newTo, output);
+                newFrom = newTo;
+            } else if (order > 0) {
+                copy(existingPrices, existingOrder, existingFrom, existingTo, output);
+                existingFrom = existingTo;
+            } else {
+                mergeGroup(newPrices, newFrom, newTo, existingPrices, existingFrom, existingTo, output);
+                newFrom = newTo;
+                existingFrom = existingTo;
+            }
+        }
+    }
+
+    /**
+     * Слияние группы цен с одинаковыми атрибутами
+     */
+    private void mergeGroup(PriceBatch newPrices, int newFrom, int newTo,
+                            PriceBatch existingPrices, int existingFrom, int existingTo, PriceBatch output) {
+        sweep.clear();
+        for (int i = newFrom; i < newTo; i++) {
+            final int index = newOrder[i];
+            sweep.addNew(newPrices.getBegin(index), newPrices.getEnd(index), newPrices.getValue(index));
+        }
+        for (int i = existingFrom; i < existingTo; i++) {
+            final int index = existingOrder[i];
+            sweep.addExisting(existingPrices.getBegin(index), existingPrices.getEnd(index),
+                    existingPrices.getValue(index));
+        }
+
+        final int attributes = newOrder[newFrom];
+        groupWriter.output = output;
+        groupWriter.productCode = newPrices.getProductCode(attributes);
+        groupWriter.number = newPrices.getNumber(attributes);
+        groupWriter.depart = newPrices.getDepart(attributes);
+        sweep.sort();
+        sweep.sweep(groupWriter);
+        groupWriter.output = null;
+    }
+
+    /**
+     * Упорядочивание индексов цен по атрибутам с сохранением исходного порядка внутри группы
+     */
+    private int[] sortByAttributes(PriceBatch prices, int[] order) {
+        final int[] result = IndexSorter.identity(order, prices.size());
+        attributeSorter.prices = prices;
+        attributeSorter.sort(result, prices.size());
+        attributeSorter.prices = null;
+        return result;
+    }
+
+    /**
+     * Конец группы цен с атрибутами цены по индексу from в упорядоченных индексах
+     */
+    private static int groupEnd(PriceBatch prices, int[] order, int from) {
+        int to = from;
+        while (to < prices.size() && compareAttributes(prices, order[from], prices, order[to]) == 0) {
+            to++;
+        }
+        return to;
+    }
+
+    private static int compareAttributes(PriceBatch left, int leftIndex, PriceBatch right, int rightIndex) {
+        int result = Integer.compare(left.getProductCode(leftIndex), right.getProductCode(rightIndex));
+        if (result == 0) {
+            result = Integer.compare(left.getNumber(leftIndex), right.getNumber(rightIndex));
+        }
+        if (result == 0) {
+            result = Integer.compare(left.getDepart(leftIndex), right.getDepart(rightIndex));
+        }
+        return result;
+    }
+
+    private static void copy(PriceBatch prices, int[] order, int from, int to, PriceBatch output) {
+        for (int i = from; i < to; i++) {
+            final int index = order[i];
+            output.add(prices.getId(index), prices.getProductCode(index), prices.getNumber(index),
+                    prices.getDepart(index), prices.getBegin(index), prices.getEnd(index), prices.getValue(index));
+        }
+    }
+
+    /**
+     * Сортировка индексов цен набора по атрибутам
+     */
+    private static class AttributeSorter extends IndexSorter {
+        PriceBatch prices;
+
+        @Override
+        int compare(int left, int right) {
+            return compareAttributes(prices, left, prices, right);
+        }
+    }
+
+    /**
+     * Запись восстановленных интервалов группы в выходной набор
+     */
+    private static class GroupWriter implements PriceSweep.IntervalConsumer {
+        PriceBatch output;
+        int productCode;
+        int number;
+        int depart;
+
+        @Override
+        public void accept(long begin, long end, long value, int source) {
+            output.add(0, productCode, number, depart, begin, end, value);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * <p>Книга цен - хранимые в памяти текущие цены, к которым по частям применяются новые цены
+ * по правилам {@link MergerService#mergePrices(List, List)}.
+ *
+ * <p>Цены каждой группы с одинаковыми атрибутами хранятся упорядоченными по началу действия.
+ * Цены группы не пересекаются, поэтому начало действия однозначно определяет цену.
+ * При применении новых цен объединяются только имеющиеся цены, пересекающиеся с периодом
+ * новых цен группы или примыкающие к нему, - остальные цены слиянием не изменяются.
+ * Применение k новых цен к группе из n цен стоит O(k log n) без учёта размера результата слияния.
+ *
+ * <p>Если новые цены одной группы пересекаются между собой, они применяются по одной в порядке коллекции:
+ * более поздняя цена перекрывает раннюю, как при последовательных вызовах с одной ценой.
+ *
+ * <p>Экземпляр не потокобезопасен.
+ */
+public class PriceBook {
+
+    private static final Comparator<Price> BY_BEGIN = Comparator.comparing(Price::getBegin);
+
+    private final MergerServiceImpl merger = new MergerServiceImpl();
+    private final Map<MergerServiceImpl.PriceKey, NavigableMap<Long, Price>> groups = new HashMap<>();
+    private int size; // количество цен в книге
+
+    /**
+     * Пустая книга цен
+     */
+    public PriceBook() {
+    }
+
+    /**
+     * Книга цен с начальным набором имеющихся цен
+     *
+     * @param existingPrices Коллекция имеющихся цен
+     */
+    public PriceBook(List<Price> existingPrices) {
+        apply(existingPrices);
+    }
+
+    /**
+     * Применение новых цен
+     *
+     * @param newPrices Коллекция новых цен
+     */
+    public void apply(List<Price> newPrices) {
+        final PriceKeyIndex priceGroups = merger.divideByPriceKey(newPrices, Collections.emptyList());
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            applyGroup(priceGroups.getKey(group), priceGroups.getNewPrices(group));
+        }
+    }
+
+    /**
+     * Применение новых цен с результатом в виде изменений цен книги по правилам
+     * {@link MergerService#mergePriceChanges(List, List)}. Изменённые цены сохраняют идентификаторы
+     * исходных цен книги.
+     *
+     * @param newPrices Коллекция новых цен
+     * @return Изменения цен книги
+     */
+    public PriceChanges applyChanges(List<Price> newPrices) {
+        final PriceChanges changes = new PriceChanges();
+        final PriceKeyIndex priceGroups = merger.divideByPriceKey(newPrices, Collections.emptyList());
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            applyGroupChanges(priceGroups.getKey(group), priceGroups.getNewPrices(group), changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Цены группы с заданными атрибутами
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @return Цены группы, упорядоченные по началу действия
+     */
+    public List<Price> getPrices(String productCode, int number, int depart) {
+        final NavigableMap<Long, Price> group = groups.get(new MergerServiceImpl.PriceKey(productCode, number, depart));
+        return group == null ? Collections.emptyList() : new ArrayList<>(group.values());
+    }
+
+    /**
+     * @return Все цены книги
+     */
+    public List<Price> getPrices() {
+        final List<Price> prices = new ArrayList<>(size);
+        for (NavigableMap<Long, Price> group : groups.values()) {
+            prices.addAll(group.values());
+        }
+        return prices;
+    }
+
+    /**
+     * @return Количество цен в книге
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Применение новых цен одной группы
+     *
+     * @param key       Ключ группы
+     * @param newPrices Новые цены группы
+     */
+    private void applyGroup(MergerServiceImpl.PriceKey key, List<Price> newPrices) {
+        if (isOverlapping(newPrices)) {
+            for (Price newPrice : newPrices) {
+                applyGroup(key, Collections.singletonList(newPrice));
+            }
+            return;
+        }
+        NavigableMap<Long, Price> group = groups.get(key);
+        if (group == null) {
+            group = new TreeMap<>();
+            groups.put(key, group);
+        }
+
+        final NavigableMap<Long, Price> affected = affectedPrices(group, newPrices);
+        final List<Price> mergedPrices;
+        if (affected.isEmpty()) {
+            mergedPrices = newPrices;
+        } else {
+            mergedPrices = merger.mergeCommonPrices(newPrices, new ArrayList<>(affected.values()));
+        }
+        replaceAffected(group, affected, mergedPrices);
+    }
+
+    /**
+     * Применение новых цен одной группы с накоплением изменений
+     *
+     * @param key       Ключ группы
+     * @param newPrices Новые цены группы
+     * @param changes   Изменения цен книги
+     */
+    private void applyGroupChanges(MergerServiceImpl.PriceKey key, List<Price> newPrices, PriceChanges changes) {
+        if (isOverlapping(newPrices)) {
+            for (Price newPrice : newPrices) {
+                applyGroupChanges(key, Collections.singletonList(newPrice), changes);
+            }
+            return;
+        }
+        NavigableMap<Long, Price> group = groups.get(key);
+        if (group == null) {
+            group = new TreeMap<>();
+            groups.put(key, group);
+        }
+
+        final NavigableMap<Long, Price> affected = affectedPrices(group, newPrices);
+        final List<Price> mergedPrices;
+        if (affected.isEmpty()) {
+            mergedPrices = newPrices;
+            for (Price newPrice : newPrices) {
+                changes.addInserted(newPrice);
+            }
+        } else {
+            mergedPrices = new ArrayList<>();
+            merger.mergeCommonPriceChanges(newPrices, new ArrayList<>(affected.values()), changes, mergedPrices);
+        }
+        replaceAffected(group, affected, mergedPrices);
+    }
+
+    /**
+     * Замена затронутых цен группы объединёнными. Количество цен книги пересчитывается
+     * по фактическому размеру группы.
+     *
+     * @param group        Цены группы
+     * @param affected     Затронутые цены группы
+     * @param mergedPrices Объединённые цены
+     */
+    private void replaceAffected(NavigableMap<Long, Price> group, NavigableMap<Long, Price> affected,
+                                 List<Price> mergedPrices) {
+        final int groupSize = group.size();
+        affected.clear();
+        for (Price mergedPrice : mergedPrices) {
+            group.put(mergedPrice.getBegin().getTime(), mergedPrice);
+        }
+        size += group.size() - groupSize;
+    }
+
+    /**
+     * @return true, если цены пересекаются между собой
+     */
+    private static boolean isOverlapping(List<Price> prices) {
+        if (prices.size() < 2) {
+            return false;
+        }
+        final List<Price> sortedPrices = new ArrayList<>(prices);
+        sortedPrices.sort(BY_BEGIN);
+        for (int i = 1; i < sortedPrices.size(); i++) {
+            if (sortedPrices.get(i - 1).getEnd().after(sortedPrices.get(i).getBegin())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Имеющиеся цены группы, пересекающиеся с периодом новых цен или примыкающие к нему
+     *
+     * @param group     Цены группы
+     * @param newPrices Новые цены группы
+     * @return Изменяемое представление цен группы
+     */
+    private static NavigableMap<Long, Price> affectedPrices(NavigableMap<Long, Price> group, List<Price> newPrices) {
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (Price newPrice : newPrices) {
+            from = Math.min(from, newPrice.getBegin().getTime());
+            to = Math.max(to, newPrice.getEnd().getTime());
+        }
+        return affectedPrices(group, from, to);
+    }
+
+    /**
+     * Имеющиеся цены группы, пересекающиеся с периодом или примыкающие к нему
+     *
+     * @param group Цены группы
+     * @param from  Начало периода
+     * @param to    Конец периода
+     * @return Изменяемое представление цен группы
+     */
+    private static NavigableMap<Long, Price> affectedPrices(NavigableMap<Long, Price> group, long from, long to) {
+        // Начаться раньше периода и дотянуться до него может только одна цена
+        final Map.Entry<Long, Price> previous = group.lowerEntry(from);
+        if (previous != null && previous.getValue().getEnd().getTime() >= from) {
+            return group.subMap(previous.getKey(), true, to, true);
+        }
+        return group.subMap(from, true, to, true);
+    }
+}
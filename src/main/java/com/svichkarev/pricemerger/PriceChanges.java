@@ -0,0 +1,78 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Изменения имеющихся цен в результате объединения
+ */
+public class PriceChanges {
+
+    private final List<Price> inserted = new ArrayList<>(); // новые интервалы
+    private final List<Price> updated = new ArrayList<>(); // укороченные или продлённые имеющиеся цены
+    private final List<Price> deleted = new ArrayList<>(); // полностью перекрытые имеющиеся цены
+
+    /**
+     * @return Добавляемые цены
+     */
+    public List<Price> getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return Изменённые имеющиеся цены с исходными идентификаторами
+     */
+    public List<Price> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return Удаляемые имеющиеся цены
+     */
+    public List<Price> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return Общее количество изменений
+     */
+    public int size() {
+        return inserted.size() + updated.size() + deleted.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Добавление изменений другого набора
+     *
+     * @param changes Набор изменений
+     */
+    public void addAll(PriceChanges changes) {
+        inserted.addAll(changes.inserted);
+        updated.addAll(changes.updated);
+        deleted.addAll(changes.deleted);
+    }
+
+    void addInserted(Price price) {
+        inserted.add(price);
+    }
+
+    void addUpdated(Price price) {
+        updated.add(price);
+    }
+
+    void addDeleted(Price price) {
+        deleted.add(price);
+    }
+
+    @Override
+    public String toString() {
+        return "PriceChanges{" +
+                "inserted=" + inserted +
+                ", updated=" + updated +
+                ", deleted=" + deleted +
+                '}';
+    }
+}
@@ -0,0 +1,105 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>Потоковое уплотнение объединённых цен: подряд идущие цены одной группы с одинаковым значением,
+ * где конец одной цены совпадает с началом следующей, сливаются в одну цену.
+ * Уплотнённая цена получает первый ненулевой идентификатор слитых цен.
+ *
+ * <p>Слияние не объединяет примыкающие цены с одинаковым значением, если они пришли из разных
+ * коллекций, и может разделить цену на примыкающие части. Уплотнение подключается получателем
+ * к результату {@link MergerService#mergePrices(java.util.Iterator, java.util.Iterator, Consumer)},
+ * {@link ExternalPriceMerger} или {@link ShardCoordinator}, где цены групп идут подряд по началу действия.
+ * Сравниваются только соседние цены, поэтому неупорядоченный поток не искажается, а уплотняется не полностью.
+ *
+ * <p>Последняя цена передаётся получателю вызовом {@link #flush()}. Экземпляр не потокобезопасен.
+ */
+public class PriceCompactor implements Consumer<Price> {
+
+    private final Consumer<Price> consumer;
+    private Price pending; // первая цена уплотняемой последовательности
+    private long pendingId; // идентификатор уплотнённой цены
+    private long pendingEnd; // конец уплотнённой цены
+    private boolean fused; // к ожидающей цене присоединены следующие
+    private long removedCount;
+
+    /**
+     * @param consumer Получатель уплотнённых цен
+     */
+    public PriceCompactor(Consumer<Price> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Уплотнение коллекции цен. Цены группируются по атрибутам и упорядочиваются по началу действия.
+     *
+     * @param prices Коллекция непересекающихся внутри групп цен
+     * @return Уплотнённые цены, упорядоченные по началу действия внутри группы
+     */
+    public static List<Price> compact(List<Price> prices) {
+        final List<Price> compacted = new ArrayList<>(prices.size());
+        final PriceCompactor compactor = new PriceCompactor(compacted::add);
+        final PriceKeyIndex priceGroups = new PriceKeyIndex(prices, Collections.emptyList());
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            final List<Price> groupPrices = priceGroups.getNewPrices(group);
+            groupPrices.sort(Comparator.comparing(Price::getBegin));
+            groupPrices.forEach(compactor);
+        }
+        compactor.flush();
+        return compacted;
+    }
+
+    @Override
+    public void accept(Price price) {
+        if (pending != null && pendingEnd == price.getBegin().getTime() && pending.getValue() == price.getValue()
+                && sameAttributes(pending, price)) {
+            pendingEnd = price.getEnd().getTime();
+            if (pendingId == 0) {
+                pendingId = price.getId();
+            }
+            fused = true;
+            removedCount++;
+            return;
+        }
+        flush();
+        pending = price;
+        pendingId = price.getId();
+        pendingEnd = price.getEnd().getTime();
+    }
+
+    /**
+     * Передача получателю ожидающей цены, после которой следующая цена не сливается с предыдущими
+     */
+    public void flush() {
+        if (pending == null) {
+            return;
+        }
+        if (fused) {
+            consumer.accept(new Price(pendingId, pending.getProductCode(), pending.getNumber(), pending.getDepart(),
+                    pending.getBegin(), new Date(pendingEnd), pending.getValue()));
+        } else {
+            consumer.accept(pending);
+        }
+        pending = null;
+        fused = false;
+    }
+
+    /**
+     * @return Количество цен, присоединённых к предыдущим
+     */
+    public long getRemovedCount() {
+        return removedCount;
+    }
+
+    private static boolean sameAttributes(Price left, Price right) {
+        return left.getNumber() == right.getNumber()
+                && left.getDepart() == right.getDepart()
+                && left.getProductCode().equals(right.getProductCode());
+    }
+}
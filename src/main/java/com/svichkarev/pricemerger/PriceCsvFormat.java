@@ -0,0 +1,250 @@
+package com.svichkarev.pricemerger;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Формат CSV-файлов цен: строка заголовка и по строке на цену
+ * <pre>
+ * productCode,number,depart,begin,end,value
+ * 122856,1,1,2013-01-01 00:00:00,2013-01-31 23:59:59,11000
+ * </pre>
+ *
+ * <p>Время записывается как {@code yyyy-MM-dd HH:mm:ss} с необязательными миллисекундами {@code .SSS}
+ * в заданном смещении от UTC. Код товара с запятой или кавычкой записывается в кавычках, кавычки внутри
+ * удваиваются: {@code "12,8""A"}. Перевод строки в коде товара не допускается.
+ * Разбор и форматирование работают с байтами напрямую и не создают объектов для каждого поля.
+ */
+final class PriceCsvFormat {
+
+    static final byte[] HEADER = "productCode,number,depart,begin,end,value".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Наибольшая длина строки без кода товара: два числа int, два времени с миллисекундами,
+     * число long, пять запятых и перевод строки
+     */
+    static final int MAX_LINE_WITHOUT_CODE = 2 * 11 + 2 * 23 + 20 + 5 + 1;
+
+    private static final int SECONDS_LENGTH = 19; // yyyy-MM-dd HH:mm:ss
+    private static final int MILLIS_LENGTH = 23; // yyyy-MM-dd HH:mm:ss.SSS
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    // Дни от 0000-03-01 до 1970-01-01
+    private static final long EPOCH_SHIFT = 719468;
+    private static final long MIN_DAY = -EPOCH_SHIFT - 60; // 0000-01-01
+    private static final long MAX_DAY = 2932896; // 9999-12-31
+
+    private PriceCsvFormat() {
+    }
+
+    /**
+     * Разбор целого числа
+     *
+     * @throws IllegalArgumentException если диапазон не содержит целое число
+     */
+    static long parseLong(byte[] bytes, int from, int to) {
+        final boolean negative = from < to && bytes[from] == '-';
+        int position = negative ? from + 1 : from;
+        if (position == to || to - position > 19) {
+            throw new IllegalArgumentException("Malformed number");
+        }
+        long result = 0;
+        for (; position < to; position++) {
+            final int digit = bytes[position] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Malformed number");
+            }
+            // Накопление в отрицательную сторону, чтобы поместился Long.MIN_VALUE
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                throw new IllegalArgumentException("Number is out of range");
+            }
+            result = result * 10 - digit;
+        }
+        if (!negative && result == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("Number is out of range");
+        }
+        return negative ? result : -result;
+    }
+
+    static int parseInt(byte[] bytes, int from, int to) {
+        final long result = parseLong(bytes, from, to);
+        if (result != (int) result) {
+            throw new IllegalArgumentException("Number is out of range");
+        }
+        return (int) result;
+    }
+
+    /**
+     * Разбор времени {@code yyyy-MM-dd HH:mm:ss[.SSS]}
+     *
+     * @param offsetMillis Смещение времени файла от UTC
+     * @return Время в миллисекундах от начала эпохи
+     * @throws IllegalArgumentException если диапазон не содержит время
+     */
+    static long parseTimestamp(byte[] bytes, int from, int to, long offsetMillis) {
+        final int length = to - from;
+        if ((length != SECONDS_LENGTH && length != MILLIS_LENGTH)
+                || bytes[from + 4] != '-' || bytes[from + 7] != '-' || bytes[from + 10] != ' '
+                || bytes[from + 13] != ':' || bytes[from + 16] != ':'
+                || (length == MILLIS_LENGTH && bytes[from + 19] != '.')) {
+            throw new IllegalArgumentException("Malformed timestamp");
+        }
+        final int year = digits(bytes, from, 4);
+        final int month = digits(bytes, from + 5, 2);
+        final int day = digits(bytes, from + 8, 2);
+        final int hour = digits(bytes, from + 11, 2);
+        final int minute = digits(bytes, from + 14, 2);
+        final int second = digits(bytes, from + 17, 2);
+        final int millis = length == MILLIS_LENGTH ? digits(bytes, from + 20, 3) : 0;
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw new IllegalArgumentException("Invalid timestamp");
+        }
+        return epochDay(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L + millis - offsetMillis;
+    }
+
+    /**
+     * Запись времени {@code yyyy-MM-dd HH:mm:ss}, миллисекунды записываются, только если не равны 0
+     *
+     * @param epochMillis  Время в миллисекундах от начала эпохи
+     * @param offsetMillis Смещение времени файла от UTC
+     * @return Позиция за записанным временем
+     * @throws IllegalArgumentException если год времени не помещается в четыре цифры
+     */
+    static int formatTimestamp(long epochMillis, long offsetMillis, byte[] bytes, int position) {
+        final long localMillis = epochMillis + offsetMillis;
+        final long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        if (epochDay < MIN_DAY || epochDay > MAX_DAY) {
+            throw new IllegalArgumentException("Timestamp is out of range: " + epochMillis);
+        }
+        final int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+
+        // Преобразование дня эпохи в дату по алгоритму Хиннанта
+        final long shifted = epochDay + EPOCH_SHIFT;
+        final long era = Math.floorDiv(shifted, 146097);
+        final int dayOfEra = (int) (shifted - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int monthIndex = (5 * dayOfYear + 2) / 153; // месяцы от марта
+        final int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        final int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        position = writeDigits(year, 4, bytes, position);
+        bytes[position++] = '-';
+        position = writeDigits(month, 2, bytes, position);
+        bytes[position++] = '-';
+        position = writeDigits(day, 2, bytes, position);
+        bytes[position++] = ' ';
+        position = writeDigits(millisOfDay / 3_600_000, 2, bytes, position);
+        bytes[position++] = ':';
+        position = writeDigits(millisOfDay / 60_000 % 60, 2, bytes, position);
+        bytes[position++] = ':';
+        position = writeDigits(millisOfDay / 1000 % 60, 2, bytes, position);
+        if (millisOfDay % 1000 != 0) {
+            bytes[position++] = '.';
+            position = writeDigits(millisOfDay % 1000, 3, bytes, position);
+        }
+        return position;
+    }
+
+    /**
+     * Проверка, нужно ли записывать код товара в кавычках
+     *
+     * @param productCode Код товара в UTF-8
+     * @return true, если код содержит запятую или кавычку
+     * @throws IllegalArgumentException если код содержит перевод строки
+     */
+    static boolean needsQuotes(byte[] productCode) {
+        boolean quoted = false;
+        for (byte b : productCode) {
+            if (b == '\n' || b == '\r') {
+                throw new IllegalArgumentException("Product code contains line break");
+            }
+            quoted |= b == ',' || b == '"';
+        }
+        return quoted;
+    }
+
+    /**
+     * Запись кода товара в кавычках с удвоением кавычек внутри
+     *
+     * @return Позиция за записанным кодом
+     */
+    static int formatQuoted(byte[] productCode, byte[] bytes, int position) {
+        bytes[position++] = '"';
+        for (byte b : productCode) {
+            if (b == '"') {
+                bytes[position++] = '"';
+            }
+            bytes[position++] = b;
+        }
+        bytes[position++] = '"';
+        return position;
+    }
+
+    /**
+     * Запись целого числа
+     *
+     * @return Позиция за записанным числом
+     */
+    static int formatLong(long value, byte[] bytes, int position) {
+        if (value == Long.MIN_VALUE) {
+            final byte[] minValue = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(minValue, 0, bytes, position, minValue.length);
+            return position + minValue.length;
+        }
+        if (value < 0) {
+            bytes[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Номер дня от начала эпохи для даты по алгоритму Хиннанта
+     */
+    private static long epochDay(int year, int month, int day) {
+        final int marchYear = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(marchYear, 400);
+        final int yearOfEra = marchYear - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - EPOCH_SHIFT;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static int digits(byte[] bytes, int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Malformed timestamp");
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    private static int writeDigits(int value, int count, byte[] bytes, int position) {
+        for (int i = position + count - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + count;
+    }
+}
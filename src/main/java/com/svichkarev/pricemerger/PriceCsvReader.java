@@ -0,0 +1,208 @@
+package com.svichkarev.pricemerger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * <p>Потоковое чтение CSV-файла цен в {@link PriceBatch}. Формат файла описан в {@link PriceCsvFormat}.
+ *
+ * <p>Файл читается из канала порциями в переиспользуемый буфер, поля разбираются прямо из байтов буфера.
+ * Строка создаётся только для кода товара, которого ещё нет в словаре пакета, поэтому разбор
+ * не создаёт объектов для каждой цены. Идентификаторы прочитанных цен равны 0.
+ */
+public class PriceCsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long offsetMillis; // смещение времени файла от UTC
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position; // начало неразобранных байтов
+    private int limit; // конец прочитанных байтов
+    private boolean endOfFile;
+    private long lineNumber;
+    private byte[] quotedCode = new byte[64]; // код товара в кавычках без удвоенных кавычек
+    private int quotedCodeLength;
+
+    /**
+     * Открытие файла для чтения
+     *
+     * @param path   CSV-файл цен
+     * @param offset Смещение времени в файле от UTC
+     */
+    public PriceCsvReader(Path path, ZoneOffset offset) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.offsetMillis = offset.getTotalSeconds() * 1000L;
+    }
+
+    /**
+     * Чтение всего файла
+     *
+     * @param path       CSV-файл цен
+     * @param dictionary Словарь кодов товаров пакета
+     * @param offset     Смещение времени в файле от UTC
+     * @return Прочитанные цены
+     */
+    public static PriceBatch read(Path path, ProductCodeDictionary dictionary, ZoneOffset offset) throws IOException {
+        final PriceBatch prices = new PriceBatch(dictionary);
+        try (PriceCsvReader reader = new PriceCsvReader(path, offset)) {
+            while (reader.read(prices, Integer.MAX_VALUE) > 0) {
+                // Чтение до конца файла
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * Чтение следующих цен файла с добавлением в пакет
+     *
+     * @param prices    Пакет цен, в который добавляются прочитанные цены
+     * @param maxPrices Наибольшее количество читаемых цен
+     * @return Количество прочитанных цен, 0 - файл прочитан полностью
+     * @throws IOException если строка файла не разбирается
+     */
+    public int read(PriceBatch prices, int maxPrices) throws IOException {
+        int count = 0;
+        while (count < maxPrices) {
+            final int lineEnd = nextLineEnd();
+            if (lineEnd < 0) {
+                break;
+            }
+            final int lineStart = position;
+            position = Math.min(lineEnd + 1, limit);
+            lineNumber++;
+
+            final int contentEnd = lineEnd > lineStart && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd == lineStart || (lineNumber == 1 && isHeader(lineStart, contentEnd))) {
+                continue;
+            }
+            try {
+                parseLine(lineStart, contentEnd, prices);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("Malformed price at %s:%d: %s", path, lineNumber, e.getMessage()), e);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Разбор строки цены: код товара, номер цены, номер отдела, начало, конец, значение
+     */
+    private void parseLine(int from, int to, PriceBatch prices) {
+        final int codeEnd;
+        final int productCode;
+        if (from < to && buffer[from] == '"') {
+            codeEnd = parseQuotedCode(from, to);
+            productCode = prices.getDictionary().intern(quotedCode, 0, quotedCodeLength);
+        } else {
+            codeEnd = nextComma(from, to);
+            productCode = prices.getDictionary().intern(buffer, from, codeEnd - from);
+        }
+        final int numberEnd = nextComma(codeEnd + 1, to);
+        final int departEnd = nextComma(numberEnd + 1, to);
+        final int beginEnd = nextComma(departEnd + 1, to);
+        final int endEnd = nextComma(beginEnd + 1, to);
+
+        final int number = PriceCsvFormat.parseInt(buffer, codeEnd + 1, numberEnd);
+        final int depart = PriceCsvFormat.parseInt(buffer, numberEnd + 1, departEnd);
+        final long begin = PriceCsvFormat.parseTimestamp(buffer, departEnd + 1, beginEnd, offsetMillis);
+        final long end = PriceCsvFormat.parseTimestamp(buffer, beginEnd + 1, endEnd, offsetMillis);
+        final long value = PriceCsvFormat.parseLong(buffer, endEnd + 1, to);
+        prices.add(0, productCode, number, depart, begin, end, value);
+    }
+
+    /**
+     * Разбор кода товара в кавычках в {@link #quotedCode}
+     *
+     * @param from Позиция открывающей кавычки
+     * @return Позиция запятой за закрывающей кавычкой
+     */
+    private int parseQuotedCode(int from, int to) {
+        quotedCodeLength = 0;
+        for (int i = from + 1; i < to; i++) {
+            if (buffer[i] == '"') {
+                if (i + 1 < to && buffer[i + 1] == ',') {
+                    return i + 1;
+                }
+                if (i + 1 == to || buffer[i + 1] != '"') {
+                    throw new IllegalArgumentException("Malformed quoted product code");
+                }
+                i++; // удвоенная кавычка
+            }
+            if (quotedCodeLength == quotedCode.length) {
+                quotedCode = Arrays.copyOf(quotedCode, quotedCode.length * 2);
+            }
+            quotedCode[quotedCodeLength++] = buffer[i];
+        }
+        throw new IllegalArgumentException("Unterminated quoted product code");
+    }
+
+    private int nextComma(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == ',') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Expected 6 fields");
+    }
+
+    private boolean isHeader(int from, int to) {
+        return to - from == PriceCsvFormat.HEADER.length
+                && Arrays.equals(Arrays.copyOfRange(buffer, from, to), PriceCsvFormat.HEADER);
+    }
+
+    /**
+     * Поиск конца следующей строки с дочитыванием файла при необходимости
+     *
+     * @return Позиция перевода строки, конец данных для последней строки без перевода, -1 - строк больше нет
+     */
+    private int nextLineEnd() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (; scanned < limit; scanned++) {
+                if (buffer[scanned] == '\n') {
+                    return scanned;
+                }
+            }
+            if (endOfFile) {
+                return position < limit ? limit : -1;
+            }
+            scanned -= position;
+            fill();
+        }
+    }
+
+    /**
+     * Перенос неразобранных байтов в начало буфера и чтение следующей порции файла
+     */
+    private void fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        if (limit == buffer.length) {
+            // Строка не помещается в буфер
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        final int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.svichkarev.pricemerger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+
+/**
+ * <p>Буферизованная запись цен в CSV-файл. Формат файла описан в {@link PriceCsvFormat}.
+ *
+ * <p>Строки собираются в переиспользуемом буфере байтов и записываются в канал целыми порциями.
+ * Коды товаров пакетов берутся из словаря в UTF-8 без повторного кодирования.
+ * Код товара с переводом строки не записывается: {@link #write(Price)} выбрасывает {@link IllegalArgumentException}.
+ */
+public class PriceCsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long offsetMillis; // смещение времени файла от UTC
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    /**
+     * Создание файла с записью заголовка
+     *
+     * @param path   CSV-файл цен
+     * @param offset Смещение времени в файле от UTC
+     */
+    public PriceCsvWriter(Path path, ZoneOffset offset) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.offsetMillis = offset.getTotalSeconds() * 1000L;
+        System.arraycopy(PriceCsvFormat.HEADER, 0, buffer, 0, PriceCsvFormat.HEADER.length);
+        position = PriceCsvFormat.HEADER.length;
+        buffer[position++] = '\n';
+    }
+
+    /**
+     * Запись всех цен пакета
+     *
+     * @param prices Пакет цен
+     */
+    public void write(PriceBatch prices) throws IOException {
+        final ProductCodeDictionary dictionary = prices.getDictionary();
+        for (int i = 0; i < prices.size(); i++) {
+            write(dictionary.getBytes(prices.getProductCode(i)), prices.getNumber(i), prices.getDepart(i),
+                    prices.getBegin(i), prices.getEnd(i), prices.getValue(i));
+        }
+    }
+
+    /**
+     * Запись цены
+     *
+     * @param price Цена
+     */
+    public void write(Price price) throws IOException {
+        write(price.getProductCode().getBytes(StandardCharsets.UTF_8), price.getNumber(), price.getDepart(),
+                price.getBegin().getTime(), price.getEnd().getTime(), price.getValue());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void write(byte[] productCode, int number, int depart, long begin, long end, long value)
+            throws IOException {
+        final boolean quoted = PriceCsvFormat.needsQuotes(productCode);
+        // В кавычках код занимает не больше удвоенной длины и двух кавычек
+        final int maxCodeLength = quoted ? 2 * productCode.length + 2 : productCode.length;
+        if (buffer.length - position < maxCodeLength + PriceCsvFormat.MAX_LINE_WITHOUT_CODE) {
+            flush();
+            if (buffer.length < maxCodeLength + PriceCsvFormat.MAX_LINE_WITHOUT_CODE) {
+                throw new IllegalArgumentException("Product code is too long: " + productCode.length + " bytes");
+            }
+        }
+        // Позиция сдвигается только после записи всей строки
+        int next = position;
+        if (quoted) {
+            next = PriceCsvFormat.formatQuoted(productCode, buffer, next);
+        } else {
+            System.arraycopy(productCode, 0, buffer, next, productCode.length);
+            next += productCode.length;
+        }
+        buffer[next++] = ',';
+        next = PriceCsvFormat.formatLong(number, buffer, next);
+        buffer[next++] = ',';
+        next = PriceCsvFormat.formatLong(depart, buffer, next);
+        buffer[next++] = ',';
+        next = PriceCsvFormat.formatTimestamp(begin, offsetMillis, buffer, next);
+        buffer[next++] = ',';
+        next = PriceCsvFormat.formatTimestamp(end, offsetMillis, buffer, next);
+        buffer[next++] = ',';
+        next = PriceCsvFormat.formatLong(value, buffer, next);
+        buffer[next++] = '\n';
+        position = next;
+    }
+
+    private void flush() throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        position = 0;
+    }
+}
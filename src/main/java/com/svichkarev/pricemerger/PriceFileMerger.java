@@ -0,0 +1,70 @@
+package com.svichkarev.pricemerger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.ZoneOffset;
+
+/**
+ * <p>Слияние CSV-файла новых цен с CSV-файлом имеющихся цен из командной строки:
+ * <pre>
+ * java -cp price-merger.jar com.svichkarev.pricemerger.PriceFileMerger new.csv existing.csv merged.csv [+03:00]
+ * </pre>
+ *
+ * <p>Файлы читаются в пакеты цен с общим словарём кодов товаров и сливаются {@link PriceBatchMerger}.
+ * Последний необязательный аргумент - смещение времени файлов от UTC, по умолчанию UTC.
+ */
+public class PriceFileMerger {
+
+    private static final String USAGE =
+            "Usage: PriceFileMerger <new prices.csv> <existing prices.csv> <output.csv> [UTC offset]";
+
+    private PriceFileMerger() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        final ZoneOffset offset;
+        try {
+            offset = args.length == 4 ? ZoneOffset.of(args[3]) : ZoneOffset.UTC;
+        } catch (DateTimeException e) {
+            System.err.println("Invalid UTC offset: " + args[3]);
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long merged = merge(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[2]), offset);
+        System.out.printf("Merged %d prices into %s in %d ms%n",
+                merged, args[2], (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Слияние файлов цен
+     *
+     * @param newPricesPath      CSV-файл новых цен
+     * @param existingPricesPath CSV-файл имеющихся цен
+     * @param outputPath         CSV-файл объединённых цен
+     * @param offset             Смещение времени файлов от UTC
+     * @return Количество объединённых цен
+     */
+    public static long merge(Path newPricesPath, Path existingPricesPath, Path outputPath, ZoneOffset offset)
+            throws IOException {
+        final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+        final PriceBatch newPrices = PriceCsvReader.read(newPricesPath, dictionary, offset);
+        final PriceBatch existingPrices = PriceCsvReader.read(existingPricesPath, dictionary, offset);
+
+        final PriceBatch mergedPrices = new PriceBatch(dictionary, existingPrices.size() + newPrices.size());
+        new PriceBatchMerger().merge(newPrices, existingPrices, mergedPrices);
+
+        try (PriceCsvWriter writer = new PriceCsvWriter(outputPath, offset)) {
+            writer.write(mergedPrices);
+        }
+        return mergedPrices.size();
+    }
+}
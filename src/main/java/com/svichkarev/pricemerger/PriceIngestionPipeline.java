@@ -0,0 +1,262 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * <p>Конвейер приёма потока новых цен по одной с применением к книге цен пакетами.
+ *
+ * <p>Цены принимаются в ограниченную очередь: когда очередь заполнена, {@link #submit(Price)}
+ * ждёт, пока поток конвейера разберёт её. Поток конвейера собирает пакет с первой цены в очереди,
+ * пока размер пакета не достигнет заданного или не истечёт окно ожидания с момента приёма первой цены.
+ *
+ * <p>Пакет делится на поколения: в i-е поколение попадает i-я по порядку приёма цена каждой группы.
+ * Поколения по очереди применяются к книге {@link PriceBook#applyChanges(List)}, поэтому более поздняя
+ * цена группы перекрывает раннюю и результат совпадает с применением цен по одной в порядке приёма.
+ * Изменения каждого поколения передаются получателю отдельно и по порядку в потоке конвейера.
+ * Больше размер и окно пакета - больше пропускная способность и задержка, статистика {@link #getStatistics()}
+ * помогает выбрать их.
+ *
+ * <p>Закрытие не пересекается с приёмом цены: цена, принятая до закрытия, будет применена,
+ * а после закрытия приём отклоняется.
+ *
+ * <p>Книга цен изменяется только потоком конвейера и не должна использоваться снаружи до закрытия конвейера.
+ */
+public class PriceIngestionPipeline implements AutoCloseable {
+
+    private static final Event CLOSE = new Event(null, 0); // признак закрытия в очереди
+    private static final long SUBMIT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final PriceBook book;
+    private final Consumer<PriceChanges> consumer;
+    private final BlockingQueue<Event> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final IngestionStatistics statistics = new IngestionStatistics();
+    private final Thread worker;
+    // Приём держит блокировку чтения от проверки состояния до постановки в очередь, закрытие - блокировку записи
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+    private volatile Throwable failure; // ошибка применения или публикации пакета, после неё конвейер остановлен
+
+    /**
+     * @param book          Книга цен
+     * @param queueCapacity Ёмкость очереди принятых цен
+     * @param maxBatchSize  Наибольший размер пакета
+     * @param maxDelay      Окно ожидания пакета
+     * @param unit          Единица окна ожидания
+     * @param consumer      Получатель изменений каждого пакета
+     */
+    public PriceIngestionPipeline(PriceBook book, int queueCapacity, int maxBatchSize, long maxDelay, TimeUnit unit,
+                                  Consumer<PriceChanges> consumer) {
+        if (maxBatchSize <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("Invalid batch limits: maxBatchSize=" + maxBatchSize
+                    + ", maxDelay=" + maxDelay);
+        }
+        this.book = book;
+        this.consumer = consumer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.worker = new Thread(this::run, "price-ingestion");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Приём новой цены с ожиданием места в очереди
+     *
+     * @param price Новая цена
+     * @throws IllegalStateException если конвейер закрыт или остановлен
+     */
+    public void submit(Price price) throws InterruptedException {
+        final Event event = new Event(price, System.nanoTime());
+        final Lock lock = closeLock.readLock();
+        boolean queued;
+        do {
+            lock.lock();
+            try {
+                checkState();
+                queued = queue.offer(event, SUBMIT_CHECK_NANOS, TimeUnit.NANOSECONDS);
+            } finally {
+                lock.unlock();
+            }
+        } while (!queued);
+    }
+
+    /**
+     * Приём новой цены без ожидания
+     *
+     * @param price Новая цена
+     * @return false, если очередь заполнена
+     * @throws IllegalStateException если конвейер закрыт или остановлен
+     */
+    public boolean offer(Price price) {
+        final Lock lock = closeLock.readLock();
+        lock.lock();
+        try {
+            checkState();
+            return queue.offer(new Event(price, System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Статистика пакетов и задержек
+     */
+    public IngestionStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Закрытие конвейера: принятые цены применяются и публикуются, после чего поток конвейера завершается.
+     * Если ожидание прервано, флаг прерывания восстанавливается, а поток конвейера разбирает очередь
+     * и завершается без ожидания.
+     *
+     * @throws IllegalStateException если конвейер остановлен ошибкой
+     */
+    @Override
+    public void close() {
+        if (markClosed()) {
+            try {
+                while (worker.isAlive() && !queue.offer(CLOSE, SUBMIT_CHECK_NANOS, TimeUnit.NANOSECONDS)) {
+                    // Ждём места в очереди, пока поток конвейера жив
+                }
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Price ingestion failed", failure);
+        }
+    }
+
+    /**
+     * @return true, если конвейер закрыт этим вызовом
+     */
+    private boolean markClosed() {
+        final Lock lock = closeLock.writeLock();
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkState() {
+        if (failure != null) {
+            throw new IllegalStateException("Price ingestion failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        if (!worker.isAlive()) {
+            throw new IllegalStateException("Pipeline thread has stopped");
+        }
+    }
+
+    private void run() {
+        final List<Event> batch = new ArrayList<>(maxBatchSize);
+        try {
+            boolean closing = false;
+            while (!closing) {
+                final Event first = queue.take();
+                if (first == CLOSE) {
+                    break;
+                }
+                batch.add(first);
+                final long deadline = first.submitted + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    Event event = queue.poll();
+                    if (event == null) {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || (event = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                    }
+                    if (event == CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    batch.add(event);
+                }
+                publish(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Ошибки получателя тоже останавливают конвейер, иначе приём цен ждал бы очередь бесконечно
+            failure = e;
+        }
+    }
+
+    private void publish(List<Event> batch) {
+        final List<PriceChanges> generationChanges = new ArrayList<>();
+        for (List<Price> generation : generations(batch)) {
+            final PriceChanges changes = book.applyChanges(generation);
+            if (!changes.isEmpty()) {
+                generationChanges.add(changes);
+            }
+        }
+
+        // Статистика учитывается до передачи получателю, поэтому видна ему и ожидающим его потокам
+        final long published = System.nanoTime();
+        statistics.batchPublished(batch.size());
+        for (Event event : batch) {
+            statistics.pricePublished(published - event.submitted);
+        }
+        for (PriceChanges changes : generationChanges) {
+            consumer.accept(changes);
+        }
+    }
+
+    /**
+     * Деление пакета на поколения: i-я по порядку приёма цена каждой группы попадает в i-е поколение
+     *
+     * @param batch Пакет принятых цен
+     * @return Поколения новых цен
+     */
+    private static List<List<Price>> generations(List<Event> batch) {
+        final List<List<Price>> generations = new ArrayList<>();
+        final Map<MergerServiceImpl.PriceKey, Integer> groupSizes = new HashMap<>();
+        for (Event event : batch) {
+            final int generation = groupSizes.merge(MergerServiceImpl.PriceKey.of(event.price), 1, Integer::sum) - 1;
+            if (generation == generations.size()) {
+                generations.add(new ArrayList<>());
+            }
+            generations.get(generation).add(event.price);
+        }
+        return generations;
+    }
+
+    /**
+     * Принятая цена со временем приёма
+     */
+    private static final class Event {
+        final Price price;
+        final long submitted; // System.nanoTime() приёма
+
+        Event(Price price, long submitted) {
+            this.price = price;
+            this.submitted = submitted;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Разделение новых и имеющихся цен на группы с одинаковыми атрибутами за один проход.
+ *
+ * <p>Коды товаров заменяются номерами в словаре, ключ группы - тройка чисел (код, номер цены, номер отдела)
+ * в таблице с открытой адресацией на примитивных массивах. Для каждой группы запоминаются списки
+ * новых и имеющихся цен в исходном порядке, поэтому уникальные и общие группы различаются
+ * по счётчикам без повторного поиска ключей.
+ */
+final class PriceKeyIndex {
+
+    private static final int EMPTY = -1;
+
+    private final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+    private final List<Price> newPrices;
+    private final List<Price> existingPrices;
+
+    private int[] table; // номер группы в ячейке или EMPTY
+    private int groupCount;
+
+    private int[] productCodes;
+    private int[] numbers;
+    private int[] departs;
+    private int[] newHeads;
+    private int[] newTails;
+    private int[] newCounts;
+    private int[] existingHeads;
+    private int[] existingTails;
+    private int[] existingCounts;
+
+    private final int[] next; // следующая цена группы: новые цены - 0..n-1, имеющиеся - n..n+m-1
+
+    // Последний код товара - соседние цены обычно ссылаются на одну строку
+    private String lastProductCode;
+    private int lastProductCodeId;
+
+    /**
+     * Разделение цен на группы
+     *
+     * @param newPrices      Коллекция новых цен
+     * @param existingPrices Коллекция имеющихся цен
+     */
+    PriceKeyIndex(List<Price> newPrices, List<Price> existingPrices) {
+        this.newPrices = newPrices;
+        this.existingPrices = existingPrices;
+
+        final int expectedGroups = Math.max(16, Integer.highestOneBit(Math.max(1, newPrices.size())));
+        table = new int[2 * expectedGroups];
+        Arrays.fill(table, EMPTY);
+        productCodes = new int[expectedGroups];
+        numbers = new int[expectedGroups];
+        departs = new int[expectedGroups];
+        newHeads = new int[expectedGroups];
+        newTails = new int[expectedGroups];
+        newCounts = new int[expectedGroups];
+        existingHeads = new int[expectedGroups];
+        existingTails = new int[expectedGroups];
+        existingCounts = new int[expectedGroups];
+        next = new int[newPrices.size() + existingPrices.size()];
+
+        for (int i = 0; i < newPrices.size(); i++) {
+            final int group = findOrAddGroup(newPrices.get(i));
+            next[i] = EMPTY;
+            if (newCounts[group] == 0) {
+                newHeads[group] = i;
+            } else {
+                next[newTails[group]] = i;
+            }
+            newTails[group] = i;
+            newCounts[group]++;
+        }
+        for (int i = 0; i < existingPrices.size(); i++) {
+            final int group = findOrAddGroup(existingPrices.get(i));
+            final int member = newPrices.size() + i;
+            next[member] = EMPTY;
+            if (existingCounts[group] == 0) {
+                existingHeads[group] = member;
+            } else {
+                next[existingTails[group]] = member;
+            }
+            existingTails[group] = member;
+            existingCounts[group]++;
+        }
+    }
+
+    /**
+     * @return Количество групп
+     */
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    int getNewCount(int group) {
+        return newCounts[group];
+    }
+
+    int getExistingCount(int group) {
+        return existingCounts[group];
+    }
+
+    /**
+     * @return Новые цены группы в исходном порядке
+     */
+    List<Price> getNewPrices(int group) {
+        return members(newHeads[group], newCounts[group]);
+    }
+
+    /**
+     * @return Номера новых цен группы в коллекции новых цен по возрастанию
+     */
+    int[] getNewIndexes(int group) {
+        final int[] indexes = new int[newCounts[group]];
+        int member = newHeads[group];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = member;
+            member = next[member];
+        }
+        return indexes;
+    }
+
+    /**
+     * @return Имеющиеся цены группы в исходном порядке
+     */
+    List<Price> getExistingPrices(int group) {
+        return members(existingHeads[group], existingCounts[group]);
+    }
+
+    /**
+     * @return Ключ группы
+     */
+    MergerServiceImpl.PriceKey getKey(int group) {
+        return new MergerServiceImpl.PriceKey(dictionary.get(productCodes[group]), numbers[group], departs[group]);
+    }
+
+    private List<Price> members(int head, int count) {
+        final List<Price> prices = new ArrayList<>(count);
+        for (int member = count == 0 ? EMPTY : head; member != EMPTY; member = next[member]) {
+            prices.add(member < newPrices.size() ? newPrices.get(member) : existingPrices.get(member - newPrices.size()));
+        }
+        return prices;
+    }
+
+    private int findOrAddGroup(Price price) {
+        final String productCode = price.getProductCode();
+        if (productCode != lastProductCode) {
+            lastProductCodeId = dictionary.intern(productCode);
+            lastProductCode = productCode;
+        }
+        final int code = lastProductCodeId;
+        final int number = price.getNumber();
+        final int depart = price.getDepart();
+
+        final int mask = table.length - 1;
+        int slot = hash(code, number, depart) & mask;
+        while (true) {
+            final int group = table[slot];
+            if (group == EMPTY) {
+                return addGroup(slot, code, number, depart);
+            }
+            if (productCodes[group] == code && numbers[group] == number && departs[group] == depart) {
+                return group;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int addGroup(int slot, int code, int number, int depart) {
+        if (groupCount == productCodes.length) {
+            final int capacity = groupCount * 2;
+            productCodes = Arrays.copyOf(productCodes, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            departs = Arrays.copyOf(departs, capacity);
+            newHeads = Arrays.copyOf(newHeads, capacity);
+            newTails = Arrays.copyOf(newTails, capacity);
+            newCounts = Arrays.copyOf(newCounts, capacity);
+            existingHeads = Arrays.copyOf(existingHeads, capacity);
+            existingTails = Arrays.copyOf(existingTails, capacity);
+            existingCounts = Arrays.copyOf(existingCounts, capacity);
+        }
+        final int group = groupCount++;
+        productCodes[group] = code;
+        numbers[group] = number;
+        departs[group] = depart;
+        table[slot] = group;
+
+        // Заполнение таблицы не больше половины
+        if (2 * groupCount > table.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, EMPTY);
+        final int mask = table.length - 1;
+        for (int group = 0; group < groupCount; group++) {
+            int slot = hash(productCodes[group], numbers[group], departs[group]) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = group;
+        }
+    }
+
+    private static int hash(int code, int number, int depart) {
+        int hash = code * 0x9E3779B9 + number;
+        hash = hash * 0x9E3779B9 + depart;
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
@@ -0,0 +1,168 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Неизменяемый индекс для поиска цены, действующей в заданный момент времени.
+ *
+ * <p>Строится по результату {@link MergerService#mergePrices(List, List)}, в котором цены группы
+ * не пересекаются. Цены всех групп хранятся подряд в общих массивах начал, окончаний и значений,
+ * упорядоченными по началу действия внутри группы, и цена группы ищется двоичным поиском.
+ * Цена действует в полуинтервале [начало, окончание).
+ *
+ * <p>Индекс не изменяется после построения, поэтому читается из любого количества потоков
+ * без синхронизации. После очередного слияния строится новый индекс и публикуется заменой
+ * ссылки, например через volatile поле.
+ */
+public class PriceLookupIndex {
+
+    private final Map<MergerServiceImpl.PriceKey, Group> groups;
+    private final Price[] prices;
+    private final long[] begins;
+    private final long[] ends;
+    private final long[] values;
+
+    /**
+     * Построение индекса
+     *
+     * @param mergedPrices Непересекающиеся внутри групп цены
+     * @throws IllegalArgumentException если цены одной группы пересекаются
+     */
+    public PriceLookupIndex(List<Price> mergedPrices) {
+        final PriceKeyIndex priceGroups = new PriceKeyIndex(mergedPrices, Collections.emptyList());
+        groups = new HashMap<>(2 * priceGroups.getGroupCount());
+        prices = new Price[mergedPrices.size()];
+        begins = new long[prices.length];
+        ends = new long[prices.length];
+        values = new long[prices.length];
+
+        int size = 0;
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            final int from = size;
+            boolean sorted = true;
+            for (Price price : priceGroups.getNewPrices(group)) {
+                prices[size] = price;
+                sorted &= size == from || prices[size - 1].getBegin().getTime() <= price.getBegin().getTime();
+                size++;
+            }
+            // Результат слияния упорядочен по началу действия, сортировка нужна только для других источников
+            if (!sorted) {
+                Arrays.sort(prices, from, size, Comparator.comparingLong(price -> price.getBegin().getTime()));
+            }
+            for (int i = from; i < size; i++) {
+                begins[i] = prices[i].getBegin().getTime();
+                ends[i] = prices[i].getEnd().getTime();
+                values[i] = prices[i].getValue();
+                if (i > from && ends[i - 1] > begins[i]) {
+                    throw new IllegalArgumentException("Overlapping prices: " + prices[i - 1] + ", " + prices[i]);
+                }
+            }
+            groups.put(priceGroups.getKey(group), new Group(from, size));
+        }
+    }
+
+    /**
+     * Цена, действующая в заданный момент
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @param time        Момент времени
+     * @return Цена или null, если в этот момент цена не действует
+     */
+    public Price getPrice(String productCode, int number, int depart, Date time) {
+        final int index = find(productCode, number, depart, time.getTime());
+        return index < 0 ? null : prices[index];
+    }
+
+    /**
+     * Значение цены, действующей в заданный момент
+     *
+     * @param productCode  Код товара
+     * @param number       Номер цены
+     * @param depart       Номер отдела
+     * @param time         Момент времени в миллисекундах
+     * @param defaultValue Значение, если в этот момент цена не действует
+     * @return Значение цены
+     */
+    public long getValue(String productCode, int number, int depart, long time, long defaultValue) {
+        final int index = find(productCode, number, depart, time);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * Все цены, действующие в заданный момент
+     *
+     * @param time Момент времени
+     * @return Не больше одной цены каждой группы
+     */
+    public List<Price> snapshot(Date time) {
+        final long t = time.getTime();
+        final List<Price> snapshot = new ArrayList<>(groups.size());
+        for (Group group : groups.values()) {
+            final int index = find(group, t);
+            if (index >= 0) {
+                snapshot.add(prices[index]);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return Количество цен в индексе
+     */
+    public int size() {
+        return prices.length;
+    }
+
+    /**
+     * @return Количество групп в индексе
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    private int find(String productCode, int number, int depart, long time) {
+        final Group group = groups.get(new MergerServiceImpl.PriceKey(productCode, number, depart));
+        return group == null ? -1 : find(group, time);
+    }
+
+    /**
+     * Индекс цены группы, действующей в момент time, или -1
+     */
+    private int find(Group group, long time) {
+        // Последняя цена, начинающаяся не позже time
+        int low = group.from;
+        int high = group.to;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (begins[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        final int index = low - 1;
+        return index >= group.from && time < ends[index] ? index : -1;
+    }
+
+    /**
+     * Диапазон цен группы в общих массивах
+     */
+    private static final class Group {
+        final int from;
+        final int to;
+
+        Group(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.svichkarev.pricemerger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * <p>Разбиение новых и имеющихся цен по хэшу ключа цены на разделы во временных файлах
+ * формата {@link PriceSpillFile}.
+ *
+ * <p>Цены одной группы всегда попадают в один раздел в исходном порядке, поэтому разделы
+ * сливаются независимо. Зерно хэша зависит от глубины разбиения, и повторное разбиение
+ * большого раздела распределяет его группы по-другому.
+ */
+final class PricePartitioner {
+
+    private static final int MAX_DEPTH = 4; // наибольшая глубина повторного разбиения
+
+    private final int partitions;
+
+    /**
+     * @param partitions Количество разделов
+     */
+    PricePartitioner(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Разбиение цен на разделы. Если все цены попали в один раздел, одна группа или совпадение хэшей
+     * не даёт разделу уменьшиться, и повторное разбиение разделов запрещается.
+     *
+     * @param directory      Каталог файлов разделов
+     * @param depth          Глубина разбиения, 0 - разбиение входных цен
+     * @param newPrices      Последовательность новых цен
+     * @param existingPrices Последовательность имеющихся цен
+     * @return Разделы в порядке номеров
+     */
+    List<Partition> partition(Path directory, int depth,
+                              Iterator<Price> newPrices, Iterator<Price> existingPrices) throws IOException {
+        final List<Partition> parts = new ArrayList<>(partitions);
+        final PriceSpillFile.Writer[] newWriters = new PriceSpillFile.Writer[partitions];
+        final PriceSpillFile.Writer[] existingWriters = new PriceSpillFile.Writer[partitions];
+        try {
+            for (int i = 0; i < partitions; i++) {
+                final Partition part = new Partition(
+                        Files.createTempFile(directory, "new-", ".spill"),
+                        Files.createTempFile(directory, "existing-", ".spill"),
+                        depth);
+                parts.add(part);
+                newWriters[i] = new PriceSpillFile.Writer(part.newPath);
+                existingWriters[i] = new PriceSpillFile.Writer(part.existingPath);
+            }
+            while (newPrices.hasNext()) {
+                final Price price = newPrices.next();
+                newWriters[partitionOf(price, depth)].write(price);
+            }
+            while (existingPrices.hasNext()) {
+                final Price price = existingPrices.next();
+                existingWriters[partitionOf(price, depth)].write(price);
+            }
+        } finally {
+            close(newWriters);
+            close(existingWriters);
+        }
+
+        int nonEmpty = 0;
+        for (int i = 0; i < partitions; i++) {
+            parts.get(i).newCount = newWriters[i].getCount();
+            parts.get(i).existingCount = existingWriters[i].getCount();
+            if (parts.get(i).size() > 0) {
+                nonEmpty++;
+            }
+        }
+        if (nonEmpty == 1) {
+            for (Partition part : parts) {
+                part.depth = MAX_DEPTH;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Повторное разбиение раздела с удалением его файлов
+     *
+     * @param directory Каталог файлов разделов
+     * @param part      Раздел, для которого {@link Partition#canSplit()}
+     * @return Разделы следующей глубины
+     */
+    List<Partition> split(Path directory, Partition part) throws IOException {
+        final List<Partition> subparts;
+        try (PriceSpillFile.Reader newReader = new PriceSpillFile.Reader(part.newPath);
+             PriceSpillFile.Reader existingReader = new PriceSpillFile.Reader(part.existingPath)) {
+            subparts = partition(directory, part.depth + 1, newReader, existingReader);
+        }
+        part.delete();
+        return subparts;
+    }
+
+    /**
+     * Удаление каталога с файлами разделов
+     */
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private int partitionOf(Price price, int depth) {
+        int hash = MergerServiceImpl.PriceKey.of(price).hashCode() + depth * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return Math.floorMod(hash, partitions);
+    }
+
+    private static void close(PriceSpillFile.Writer[] writers) throws IOException {
+        IOException failure = null;
+        for (PriceSpillFile.Writer writer : writers) {
+            if (writer == null) {
+                continue;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Раздел новых и имеющихся цен во временных файлах
+     */
+    static final class Partition {
+        final Path newPath;
+        final Path existingPath;
+        private int depth;
+        private long newCount;
+        private long existingCount;
+
+        Partition(Path newPath, Path existingPath, int depth) {
+            this.newPath = newPath;
+            this.existingPath = existingPath;
+            this.depth = depth;
+        }
+
+        /**
+         * @return Количество новых и имеющихся цен раздела
+         */
+        long size() {
+            return newCount + existingCount;
+        }
+
+        /**
+         * @return true, если повторное разбиение может уменьшить раздел
+         */
+        boolean canSplit() {
+            return depth < MAX_DEPTH;
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(newPath);
+            Files.deleteIfExists(existingPath);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.svichkarev.pricemerger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>Сегмент цен, отображённый в память. Формат файла описан в {@link PriceSegmentWriter}.
+ *
+ * <p>Индекс ключей и словарь кодов товаров читаются при открытии, записи цен читаются
+ * напрямую из отображённой памяти без создания объектов {@link Price}.
+ */
+public class PriceSegment implements Closeable {
+
+    // Записи отображаются частями, т.к. один буфер ограничен 2 ГБ
+    private static final int RECORDS_PER_CHUNK = Integer.MAX_VALUE / PriceSegmentWriter.RECORD_SIZE;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+
+    private final String[] productCodes; // словарь кодов товаров
+    private final int keyCount;
+    private final int[] keyProductCodes;
+    private final int[] numbers;
+    private final int[] departs;
+    private final int[] counts;
+    private final long[] firstRecords;
+
+    private PriceSegment(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+
+        final ByteBuffer header = map(0, PriceSegmentWriter.HEADER_SIZE);
+        if (header.getInt() != PriceSegmentWriter.MAGIC || header.getInt() != PriceSegmentWriter.VERSION) {
+            throw new IOException("Not a price segment file: " + path);
+        }
+        keyCount = header.getInt();
+        final int productCodeCount = header.getInt();
+        final long recordCount = header.getLong();
+        final long indexOffset = header.getLong();
+
+        final int chunkCount = (int) ((recordCount + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK);
+        chunks = new MappedByteBuffer[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final long firstRecord = (long) chunk * RECORDS_PER_CHUNK;
+            final long records = Math.min(RECORDS_PER_CHUNK, recordCount - firstRecord);
+            chunks[chunk] = map(PriceSegmentWriter.HEADER_SIZE + firstRecord * PriceSegmentWriter.RECORD_SIZE,
+                    records * PriceSegmentWriter.RECORD_SIZE);
+        }
+
+        final ByteBuffer index = map(indexOffset, channel.size() - indexOffset);
+        keyProductCodes = new int[keyCount];
+        numbers = new int[keyCount];
+        departs = new int[keyCount];
+        counts = new int[keyCount];
+        firstRecords = new long[keyCount];
+        for (int key = 0; key < keyCount; key++) {
+            keyProductCodes[key] = index.getInt();
+            numbers[key] = index.getInt();
+            departs[key] = index.getInt();
+            counts[key] = index.getInt();
+            firstRecords[key] = index.getLong();
+        }
+        productCodes = new String[productCodeCount];
+        for (int id = 0; id < productCodeCount; id++) {
+            final byte[] code = new byte[index.getShort() & 0xFFFF];
+            index.get(code);
+            productCodes[id] = new String(code, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Открытие сегмента
+     *
+     * @param path Файл сегмента
+     * @return Сегмент цен
+     */
+    public static PriceSegment open(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new PriceSegment(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Поиск группы цен по ключу
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @return Номер группы или -1, если группы нет в сегменте
+     */
+    public int findKey(String productCode, int number, int depart) {
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            int order = getProductCode(middle).compareTo(productCode);
+            if (order == 0) {
+                order = Integer.compare(numbers[middle], number);
+            }
+            if (order == 0) {
+                order = Integer.compare(departs[middle], depart);
+            }
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Цены группы
+     *
+     * @param key Номер группы
+     * @return Цены группы, упорядоченные по началу действия
+     */
+    public List<Price> getPrices(int key) {
+        final List<Price> prices = new ArrayList<>(counts[key]);
+        final long to = firstRecords[key] + counts[key];
+        for (long record = firstRecords[key]; record < to; record++) {
+            prices.add(new Price(getLong(record, 0), getProductCode(key), numbers[key], departs[key],
+                    new Date(getLong(record, 8)), new Date(getLong(record, 16)), getLong(record, 24)));
+        }
+        return prices;
+    }
+
+    /**
+     * Передача цен группы как имеющихся для слияния без создания объектов
+     *
+     * @param key   Номер группы
+     * @param sweep Слияние группы цен
+     */
+    void addExisting(int key, PriceSweep sweep) {
+        final long to = firstRecords[key] + counts[key];
+        for (long record = firstRecords[key]; record < to; record++) {
+            sweep.addExisting(getLong(record, 8), getLong(record, 16), getLong(record, 24));
+        }
+    }
+
+    /**
+     * Копирование записей группы в записываемый сегмент
+     *
+     * @param key    Номер группы
+     * @param writer Запись сегмента с начатой группой
+     */
+    void copyTo(int key, PriceSegmentWriter writer) throws IOException {
+        final long to = firstRecords[key] + counts[key];
+        for (long record = firstRecords[key]; record < to; record++) {
+            writer.write(getLong(record, 0), getLong(record, 8), getLong(record, 16), getLong(record, 24));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public String getProductCode(int key) {
+        return productCodes[keyProductCodes[key]];
+    }
+
+    public int getNumber(int key) {
+        return numbers[key];
+    }
+
+    public int getDepart(int key) {
+        return departs[key];
+    }
+
+    /**
+     * @param key Номер группы
+     * @return Количество цен группы
+     */
+    public int getCount(int key) {
+        return counts[key];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long getLong(long record, int offset) {
+        final int chunk = (int) (record / RECORDS_PER_CHUNK);
+        final int position = (int) (record % RECORDS_PER_CHUNK) * PriceSegmentWriter.RECORD_SIZE + offset;
+        return chunks[chunk].getLong(position);
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+}
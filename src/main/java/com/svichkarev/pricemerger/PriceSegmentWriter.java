@@ -0,0 +1,191 @@
+package com.svichkarev.pricemerger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Запись сегмента цен - двоичного файла с записями фиксированной длины.
+ *
+ * <p>Формат файла:
+ * <p>заголовок {@value #HEADER_SIZE} байт - сигнатура, версия, количество ключей, количество кодов товаров,
+ * количество записей, смещение индекса ключей;
+ * <p>записи цен по {@value #RECORD_SIZE} байт - идентификатор, начало, конец, значение,
+ * упорядоченные по ключу и началу действия;
+ * <p>индекс ключей по {@value #KEY_SIZE} байт - номер кода товара, номер цены, номер отдела,
+ * количество записей группы, номер первой записи группы;
+ * <p>словарь кодов товаров - длина без знака в двух байтах и байты UTF-8 каждого кода в порядке номеров.
+ *
+ * <p>Группы записываются строго по возрастанию ключа {@link MergerServiceImpl.PriceKey}.
+ */
+public class PriceSegmentWriter implements Closeable {
+
+    static final int MAGIC = 0x50524353; // PRCS
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int KEY_SIZE = 24;
+    static final int MAX_PRODUCT_CODE_BYTES = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+
+    private int keyCount;
+    private int[] productCodes = new int[16];
+    private int[] numbers = new int[16];
+    private int[] departs = new int[16];
+    private int[] counts = new int[16];
+    private long[] firstRecords = new long[16];
+
+    private long recordCount;
+    private MergerServiceImpl.PriceKey lastKey;
+
+    /**
+     * @param path Файл сегмента, имеющийся файл перезаписывается
+     */
+    public PriceSegmentWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Запись коллекции цен в новый сегмент
+     *
+     * @param path   Файл сегмента
+     * @param prices Коллекция цен
+     */
+    public static void write(Path path, List<Price> prices) throws IOException {
+        final List<Price> sorted = new ArrayList<>(prices);
+        sorted.sort(Comparator.comparing(MergerServiceImpl.PriceKey::of)
+                .thenComparingLong(price -> price.getBegin().getTime()));
+        try (PriceSegmentWriter writer = new PriceSegmentWriter(path)) {
+            MergerServiceImpl.PriceKey key = null;
+            for (Price price : sorted) {
+                final MergerServiceImpl.PriceKey priceKey = MergerServiceImpl.PriceKey.of(price);
+                if (!priceKey.equals(key)) {
+                    writer.startGroup(price.getProductCode(), price.getNumber(), price.getDepart());
+                    key = priceKey;
+                }
+                writer.write(price.getId(), price.getBegin().getTime(), price.getEnd().getTime(), price.getValue());
+            }
+        }
+    }
+
+    /**
+     * Начало группы цен. Группы должны идти по возрастанию ключа.
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @throws IllegalArgumentException если ключ группы не больше ключа предыдущей группы
+     *                                  или код товара длиннее {@value #MAX_PRODUCT_CODE_BYTES} байт UTF-8
+     */
+    public void startGroup(String productCode, int number, int depart) {
+        // Символ занимает не больше трёх байт UTF-8, поэтому короткие коды не кодируются для проверки
+        if (productCode.length() > MAX_PRODUCT_CODE_BYTES / 3
+                && productCode.getBytes(StandardCharsets.UTF_8).length > MAX_PRODUCT_CODE_BYTES) {
+            throw new IllegalArgumentException("Product code is longer than " + MAX_PRODUCT_CODE_BYTES + " bytes");
+        }
+        final MergerServiceImpl.PriceKey key = new MergerServiceImpl.PriceKey(productCode, number, depart);
+        if (lastKey != null && lastKey.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("Price groups are not ordered by attributes: " + productCode
+                    + ", " + number + ", " + depart);
+        }
+        lastKey = key;
+
+        if (keyCount == productCodes.length) {
+            final int capacity = keyCount * 2;
+            productCodes = Arrays.copyOf(productCodes, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            departs = Arrays.copyOf(departs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            firstRecords = Arrays.copyOf(firstRecords, capacity);
+        }
+        productCodes[keyCount] = dictionary.intern(productCode);
+        numbers[keyCount] = number;
+        departs[keyCount] = depart;
+        counts[keyCount] = 0;
+        firstRecords[keyCount] = recordCount;
+        keyCount++;
+    }
+
+    /**
+     * Запись цены текущей группы
+     *
+     * @param id    Идентификатор в БД
+     * @param begin Начало действия в миллисекундах эпохи
+     * @param end   Конец действия в миллисекундах эпохи
+     * @param value Значение цены в копейках
+     */
+    public void write(long id, long begin, long end, long value) throws IOException {
+        if (keyCount == 0) {
+            throw new IllegalStateException("Price group is not started");
+        }
+        ensureRemaining(RECORD_SIZE);
+        buffer.putLong(id).putLong(begin).putLong(end).putLong(value);
+        counts[keyCount - 1]++;
+        recordCount++;
+    }
+
+    /**
+     * Запись индекса ключей, словаря и заголовка с закрытием файла
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            final long indexOffset = HEADER_SIZE + recordCount * RECORD_SIZE;
+            for (int key = 0; key < keyCount; key++) {
+                ensureRemaining(KEY_SIZE);
+                buffer.putInt(productCodes[key]).putInt(numbers[key]).putInt(departs[key]).putInt(counts[key])
+                        .putLong(firstRecords[key]);
+            }
+            for (int id = 0; id < dictionary.size(); id++) {
+                final byte[] code = dictionary.get(id).getBytes(StandardCharsets.UTF_8);
+                ensureRemaining(Short.BYTES);
+                buffer.putShort((short) code.length); // длина проверена в startGroup
+                for (byte b : code) {
+                    ensureRemaining(1);
+                    buffer.put(b);
+                }
+            }
+            flush();
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(keyCount).putInt(dictionary.size())
+                    .putLong(recordCount).putLong(indexOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,146 @@
+package com.svichkarev.pricemerger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Временный файл цен для слияния вне памяти и обмена сегментами с процессами {@link ShardWorker}.
+ * Цены записываются последовательно в порядке добавления:
+ * <pre>
+ * 1 id:long productCode:UTF number:int depart:int begin:long end:long value:long
+ * ...
+ * 0 - конец файла
+ * </pre>
+ */
+final class PriceSpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int RECORD = 1;
+    private static final int END = 0;
+
+    private PriceSpillFile() {
+    }
+
+    /**
+     * Чтение всех цен файла
+     *
+     * @param path Файл цен
+     * @return Цены в порядке записи
+     */
+    static List<Price> readAll(Path path) throws IOException {
+        final List<Price> prices = new ArrayList<>();
+        try (Reader reader = new Reader(path)) {
+            reader.forEachRemaining(prices::add);
+        }
+        return prices;
+    }
+
+    /**
+     * Запись всех цен в файл
+     *
+     * @param path   Файл цен
+     * @param prices Цены
+     */
+    static void writeAll(Path path, List<Price> prices) throws IOException {
+        try (Writer writer = new Writer(path)) {
+            for (Price price : prices) {
+                writer.write(price);
+            }
+        }
+    }
+
+    /**
+     * Последовательная запись цен
+     */
+    static final class Writer implements Closeable {
+        private final DataOutputStream output;
+        private long count;
+
+        Writer(Path path) throws IOException {
+            output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+        }
+
+        void write(Price price) throws IOException {
+            output.writeByte(RECORD);
+            output.writeLong(price.getId());
+            output.writeUTF(price.getProductCode());
+            output.writeInt(price.getNumber());
+            output.writeInt(price.getDepart());
+            output.writeLong(price.getBegin().getTime());
+            output.writeLong(price.getEnd().getTime());
+            output.writeLong(price.getValue());
+            count++;
+        }
+
+        /**
+         * @return Количество записанных цен
+         */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                output.writeByte(END);
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Последовательное чтение цен. Ошибки чтения передаются как {@link UncheckedIOException}.
+     */
+    static final class Reader implements Iterator<Price>, Closeable {
+        private final DataInputStream input;
+        private boolean hasNext;
+
+        Reader(Path path) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+            try {
+                hasNext = input.readByte() == RECORD;
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Price next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final Price price = new Price(input.readLong(), input.readUTF(), input.readInt(), input.readInt(),
+                        new Date(input.readLong()), new Date(input.readLong()), input.readLong());
+                hasNext = input.readByte() == RECORD;
+                return price;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.svichkarev.pricemerger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Хранилище цен в каталоге: базовый сегмент и дописываемые сегменты изменений.
+ * Формат сегментов описан в {@link PriceSegmentWriter}.
+ *
+ * <p>Сегмент изменений содержит объединённые цены групп, затронутых слиянием, и полностью
+ * заменяет эти группы в более старых сегментах. Группа ищется от самого нового сегмента к базовому.
+ * Уплотнение переносит изменения в новый базовый сегмент и удаляет сегменты изменений.
+ *
+ * <p>Сегменты записываются во временные файлы и появляются в каталоге атомарным переименованием.
+ * Имя базового сегмента содержит номер первого сегмента изменений, применяемого поверх него,
+ * поэтому переименование нового базового сегмента одновременно отменяет все более старые сегменты
+ * изменений: если после сбоя они остались в каталоге, они удаляются при открытии.
+ *
+ * <p>При слиянии имеющиеся цены читаются из отображённой памяти сегментов без создания объектов,
+ * поэтому полное слияние ограничено скоростью чтения диска. Экземпляр не потокобезопасен.
+ */
+public class PriceStore implements Closeable {
+
+    private static final String BASE_PREFIX = "base-";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final String SEGMENT_SUFFIX = ".prices";
+    private static final String LEGACY_BASE_FILE = "base.prices"; // базовый сегмент без номера, старее нумерованных
+    private static final String TEMP_BASE_FILE = "base.tmp";
+
+    private final Path directory;
+    private PriceSegment base; // null, если базового сегмента нет
+    private final List<PriceSegment> deltas = new ArrayList<>(); // от старых к новым
+    private long nextDelta;
+
+    private PriceStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Открытие хранилища, каталог создаётся при необходимости
+     *
+     * @param directory Каталог хранилища
+     * @return Хранилище цен
+     */
+    public static PriceStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        final PriceStore store = new PriceStore(directory);
+        try {
+            final TreeMap<Long, Path> basePaths = new TreeMap<>();
+            final Path legacyBasePath = directory.resolve(LEGACY_BASE_FILE);
+            if (Files.exists(legacyBasePath)) {
+                basePaths.put(-1L, legacyBasePath);
+            }
+            basePaths.putAll(segmentPaths(directory, BASE_PREFIX));
+            long baseSequence = 0;
+            if (!basePaths.isEmpty()) {
+                final Map.Entry<Long, Path> currentBase = basePaths.pollLastEntry();
+                baseSequence = Math.max(0, currentBase.getKey());
+                store.base = PriceSegment.open(currentBase.getValue());
+                // Прежние базовые сегменты остаются только после сбоя при замене
+                for (Path staleBase : basePaths.values()) {
+                    Files.delete(staleBase);
+                }
+            }
+            store.nextDelta = baseSequence;
+            for (Map.Entry<Long, Path> delta : segmentPaths(directory, DELTA_PREFIX).entrySet()) {
+                if (delta.getKey() < baseSequence) {
+                    // Изменения уже перенесены в базовый сегмент или отменены загрузкой
+                    Files.delete(delta.getValue());
+                    continue;
+                }
+                store.deltas.add(PriceSegment.open(delta.getValue()));
+                store.nextDelta = delta.getKey() + 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Замена содержимого хранилища коллекцией цен
+     *
+     * @param prices Коллекция цен нового базового сегмента
+     */
+    public void load(List<Price> prices) throws IOException {
+        final Path tempPath = directory.resolve(TEMP_BASE_FILE);
+        try {
+            PriceSegmentWriter.write(tempPath, prices);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        replaceBase(tempPath);
+    }
+
+    /**
+     * Слияние новых цен с ценами хранилища по правилам {@link MergerService#mergePrices(List, List)}.
+     * Объединённые цены затронутых групп дописываются новым сегментом изменений.
+     *
+     * @param newPrices Коллекция новых цен
+     * @return Файл сегмента изменений
+     */
+    public Path merge(List<Price> newPrices) throws IOException {
+        final TreeMap<MergerServiceImpl.PriceKey, List<Price>> newGroups = new TreeMap<>();
+        for (Price price : newPrices) {
+            newGroups.computeIfAbsent(MergerServiceImpl.PriceKey.of(price), key -> new ArrayList<>()).add(price);
+        }
+
+        final Path deltaPath = directory.resolve(segmentFile(DELTA_PREFIX, nextDelta));
+        final Path tempPath = directory.resolve(deltaPath.getFileName() + ".tmp");
+        final PriceSweep sweep = new PriceSweep();
+        try (PriceSegmentWriter writer = new PriceSegmentWriter(tempPath)) {
+            final PriceSweep.IntervalConsumer groupWriter = (begin, end, value, source) -> {
+                try {
+                    writer.write(0, begin, end, value);
+                } catch (IOException e) {
+                    throw new StoreWriteException(e);
+                }
+            };
+
+            for (Map.Entry<MergerServiceImpl.PriceKey, List<Price>> group : newGroups.entrySet()) {
+                final MergerServiceImpl.PriceKey key = group.getKey();
+                writer.startGroup(key.productCode, key.number, key.depart);
+
+                final SegmentKey segmentKey = findSegment(key);
+                if (segmentKey == null) {
+                    // Цены сегмента внутри группы упорядочены по началу действия, как результат слияния
+                    final List<Price> prices = group.getValue();
+                    prices.sort(Comparator.comparing(Price::getBegin));
+                    for (Price price : prices) {
+                        writer.write(price.getId(), price.getBegin().getTime(), price.getEnd().getTime(),
+                                price.getValue());
+                    }
+                    continue;
+                }
+
+                sweep.clear();
+                for (Price price : group.getValue()) {
+                    sweep.addNew(price.getBegin().getTime(), price.getEnd().getTime(), price.getValue());
+                }
+                segmentKey.segment.addExisting(segmentKey.key, sweep);
+                sweep.sort();
+                sweep.sweep(groupWriter);
+            }
+        } catch (StoreWriteException e) {
+            Files.deleteIfExists(tempPath);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        // Сегмент появляется в каталоге только целиком записанным
+        Files.move(tempPath, deltaPath, StandardCopyOption.ATOMIC_MOVE);
+
+        deltas.add(PriceSegment.open(deltaPath));
+        nextDelta++;
+        return deltaPath;
+    }
+
+    /**
+     * Цены группы с заданными атрибутами
+     *
+     * @param productCode Код товара
+     * @param number      Номер цены
+     * @param depart      Номер отдела
+     * @return Цены группы, упорядоченные по началу действия
+     */
+    public List<Price> getPrices(String productCode, int number, int depart) {
+        final MergerServiceImpl.PriceKey key = new MergerServiceImpl.PriceKey(productCode, number, depart);
+        final SegmentKey segmentKey = findSegment(key);
+        if (segmentKey == null) {
+            return Collections.emptyList();
+        }
+        return segmentKey.segment.getPrices(segmentKey.key);
+    }
+
+    /**
+     * @return Все цены хранилища, упорядоченные по атрибутам и началу действия
+     */
+    public List<Price> getPrices() {
+        final List<Price> prices = new ArrayList<>();
+        for (Map.Entry<MergerServiceImpl.PriceKey, SegmentKey> entry : currentGroups().entrySet()) {
+            prices.addAll(entry.getValue().segment.getPrices(entry.getValue().key));
+        }
+        return prices;
+    }
+
+    /**
+     * @return Количество сегментов изменений
+     */
+    public int getDeltaCount() {
+        return deltas.size();
+    }
+
+    /**
+     * Уплотнение: перенос актуальных групп всех сегментов в новый базовый сегмент
+     * и удаление сегментов изменений
+     */
+    public void compact() throws IOException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final Path tempPath = directory.resolve(TEMP_BASE_FILE);
+        try (PriceSegmentWriter writer = new PriceSegmentWriter(tempPath)) {
+            for (Map.Entry<MergerServiceImpl.PriceKey, SegmentKey> entry : currentGroups().entrySet()) {
+                final MergerServiceImpl.PriceKey key = entry.getKey();
+                writer.startGroup(key.productCode, key.number, key.depart);
+                entry.getValue().segment.copyTo(entry.getValue().key, writer);
+            }
+        }
+        replaceBase(tempPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (base != null) {
+            base.close();
+        }
+        for (PriceSegment delta : deltas) {
+            delta.close();
+        }
+    }
+
+    /**
+     * Группа в самом новом содержащем её сегменте
+     */
+    private SegmentKey findSegment(MergerServiceImpl.PriceKey key) {
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            final SegmentKey segmentKey = findKey(deltas.get(i), key);
+            if (segmentKey != null) {
+                return segmentKey;
+            }
+        }
+        return base == null ? null : findKey(base, key);
+    }
+
+    private static SegmentKey findKey(PriceSegment segment, MergerServiceImpl.PriceKey key) {
+        final int index = segment.findKey(key.productCode, key.number, key.depart);
+        return index < 0 ? null : new SegmentKey(segment, index);
+    }
+
+    /**
+     * Актуальные группы всех сегментов: для каждого ключа - самый новый содержащий его сегмент
+     */
+    private TreeMap<MergerServiceImpl.PriceKey, SegmentKey> currentGroups() {
+        final TreeMap<MergerServiceImpl.PriceKey, SegmentKey> groups = new TreeMap<>();
+        final List<PriceSegment> segments = new ArrayList<>();
+        if (base != null) {
+            segments.add(base);
+        }
+        segments.addAll(deltas);
+        for (PriceSegment segment : segments) {
+            for (int key = 0; key < segment.getKeyCount(); key++) {
+                groups.put(new MergerServiceImpl.PriceKey(segment.getProductCode(key), segment.getNumber(key),
+                        segment.getDepart(key)), new SegmentKey(segment, key));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Замена базового сегмента записанным файлом с удалением сегментов изменений.
+     * Новый базовый сегмент получает номер следующего сегмента изменений, поэтому после переименования
+     * имеющиеся сегменты изменений устаревают, даже если удалить их не удалось.
+     */
+    private void replaceBase(Path newBase) throws IOException {
+        close();
+        final Path basePath = directory.resolve(segmentFile(BASE_PREFIX, nextDelta));
+        Files.move(newBase, basePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (base != null && !base.getPath().equals(basePath)) {
+            Files.delete(base.getPath());
+        }
+        for (PriceSegment delta : deltas) {
+            Files.delete(delta.getPath());
+        }
+        deltas.clear();
+        base = PriceSegment.open(basePath);
+    }
+
+    private static String segmentFile(String prefix, long sequence) {
+        return String.format("%s%08d%s", prefix, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Файлы сегментов с заданным префиксом по возрастанию номера
+     */
+    private static TreeMap<Long, Path> segmentPaths(Path directory, String prefix) throws IOException {
+        final TreeMap<Long, Path> paths = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                paths.put(Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length())),
+                        file);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Группа в сегменте
+     */
+    private static class SegmentKey {
+        final PriceSegment segment;
+        final int key;
+
+        SegmentKey(PriceSegment segment, int key) {
+            this.segment = segment;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Передача ошибки записи через получателя интервалов
+     */
+    private static class StoreWriteException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StoreWriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.svichkarev.pricemerger;
+
+import java.util.Arrays;
+
+/**
+ * Слияние одной группы цен проходом по временным точкам на примитивных массивах.
+ * Все рабочие массивы переиспользуются между группами. Экземпляр не потокобезопасен.
+ *
+ * <p>Временная точка задаётся порядковым номером: 2 * i - начало i-й цены, 2 * i + 1 - её конец.
+ * Новые цены добавляются раньше имеющихся, поэтому номер точки кодирует и поколение цены, и индекс
+ * в массиве значений. Для сортировки точка упаковывается в ключ long: старшие биты - смещение времени
+ * от минимального времени группы, младшие - порядковый номер точки. Так при равном времени
+ * точки новых цен идут раньше точек имеющихся, внутри поколения - в порядке добавления цен,
+ * а начало цены - раньше её конца.
+ *
+ * <p>Если цены каждого поколения уже упорядочены по времени и не пересекаются, точки поколения
+ * идут по времени в порядке номеров, и вместо сортировки выполняется линейное слияние двух поколений
+ * с тем же порядком точек.
+ */
+final class PriceSweep {
+
+    /**
+     * Получатель восстановленных интервалов действия цены
+     */
+    interface IntervalConsumer {
+        /**
+         * @param begin  Начало действия
+         * @param end    Конец действия
+         * @param value  Значение цены
+         * @param source Индекс цены, к которой относится интервал: новые цены - 0..n-1, имеющиеся - n..n+m-1
+         */
+        void accept(long begin, long end, long value, int source);
+    }
+
+    private long[] begins;
+    private long[] ends;
+    private long[] values;
+    private int newCount; // количество новых цен
+    private int size; // количество всех цен
+    private int droppedCount; // количество отброшенных интервалов нулевой длины при последнем проходе
+
+    // Отнесение интервалов новых цен к имеющимся ценам того же значения
+    private int[] existingOrder = new int[0]; // индексы имеющихся цен в порядке начала действия
+    private boolean[] attributed = new boolean[0]; // имеющейся цене уже отнесён интервал
+    private int nextExisting; // первая имеющаяся цена, которая может пересечься со следующим интервалом
+
+    private long[] keys; // упакованные ключи временных точек в порядке сортировки
+    private long ordinalMask; // маска порядкового номера точки в ключе
+
+    // Запасной вариант для групп, время которых не помещается в ключ
+    private int[] points = new int[0];
+    private final IndexSorter pointSorter = new IndexSorter() {
+        @Override
+        int compare(int left, int right) {
+            return Long.compare(time(left), time(right));
+        }
+    };
+
+    PriceSweep() {
+        this(16);
+    }
+
+    /**
+     * @param capacity Ожидаемое количество цен в группе
+     */
+    PriceSweep(int capacity) {
+        final int initialCapacity = Math.max(1, capacity);
+        begins = new long[initialCapacity];
+        ends = new long[initialCapacity];
+        values = new long[initialCapacity];
+        keys = new long[2 * initialCapacity];
+    }
+
+    /**
+     * Удаление цен предыдущей группы
+     */
+    void clear() {
+        newCount = 0;
+        size = 0;
+        droppedCount = 0;
+    }
+
+    /**
+     * Добавление новой цены. Все новые цены добавляются раньше имеющихся.
+     */
+    void addNew(long begin, long end, long value) {
+        if (newCount != size) {
+            throw new IllegalStateException("New prices must be added before existing ones");
+        }
+        add(begin, end, value);
+        newCount++;
+    }
+
+    /**
+     * Добавление имеющейся цены
+     */
+    void addExisting(long begin, long end, long value) {
+        add(begin, end, value);
+    }
+
+    /**
+     * Сортировка временных точек добавленных цен
+     */
+    void sort() {
+        final int pointsCount = 2 * size;
+        if (keys.length < pointsCount) {
+            keys = new long[Math.max(pointsCount, keys.length * 2)];
+        }
+
+        final int newPointsCount = 2 * newCount;
+        if (isOrdered(0, newPointsCount) && isOrdered(newPointsCount, pointsCount)) {
+            mergeOrderedPoints(newPointsCount, pointsCount);
+            return;
+        }
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minTime = Math.min(minTime, Math.min(begins[i], ends[i]));
+            maxTime = Math.max(maxTime, Math.max(begins[i], ends[i]));
+        }
+
+        final int ordinalBits = 64 - Long.numberOfLeadingZeros(Math.max(1, pointsCount - 1));
+        final long timeRange = maxTime - minTime;
+        if (timeRange < 0 || 63 - ordinalBits < 64 - Long.numberOfLeadingZeros(timeRange)) {
+            sortPoints(pointsCount);
+            return;
+        }
+
+        ordinalMask = (1L << ordinalBits) - 1;
+        for (int point = 0; point < pointsCount; point++) {
+            keys[point] = (time(point) - minTime) << ordinalBits | point;
+        }
+        // Ключи уникальны, поэтому неустойчивая сортировка даёт однозначный порядок
+        Arrays.sort(keys, 0, pointsCount);
+    }
+
+    /**
+     * Восстановление объединённых интервалов группы по отсортированным точкам
+     *
+     * @param consumer Получатель интервалов в порядке времени
+     */
+    void sweep(IntervalConsumer consumer) {
+        final int pointsCount = 2 * size;
+        droppedCount = 0;
+
+        int begin = point(0);
+        boolean beginNew = isNew(begin);
+        for (int i = 1; i < pointsCount; i++) {
+            final int current = point(i);
+            // Если начальная точка - это конец цены, а конечная - начало,
+            // тогда это временной промежуток между ценами - пропускаем
+            if (isEnd(begin) && !isEnd(current)) {
+                begin = current;
+                beginNew = isNew(current);
+                continue;
+            }
+
+            // Новая ценовая точка с большим приоритетом
+            if (isNew(current)) {
+                if (value(current) == value(begin) && !isEnd(current)) {
+                    // Если значения одинаковы, но точка из новых, поднимаем приоритет
+                    beginNew = true;
+                } else {
+                    // Старая цена прерывается новой - добавляем интервал
+                    accept(consumer, begin, current, begin);
+                    begin = current;
+                    beginNew = true;
+                }
+            } else {
+                // Начало интервала и так новая цена - перекрывает старую цену - пропускаем
+                if (beginNew && !isEnd(begin)) {
+                    continue;
+                }
+
+                // Цена определяется текущей точкой - окончание интервала или нет
+                accept(consumer, begin, current, isEnd(current) ? current : begin);
+
+                begin = current;
+                beginNew = false;
+            }
+        }
+    }
+
+    /**
+     * Восстановление объединённых интервалов группы, как {@link #sweep(IntervalConsumer)}, с отнесением
+     * интервалов новых цен к имеющимся ценам того же значения. Интервал со значением новой цены передаётся
+     * с индексом имеющейся цены, если она пересекается с интервалом, имеет то же значение и ей ещё
+     * не отнесён ни один интервал. Так повторно присланная или продлённая новой ценой имеющаяся цена
+     * остаётся той же ценой, а не заменяется новой.
+     *
+     * @param consumer Получатель интервалов в порядке времени
+     */
+    void sweepAttributed(IntervalConsumer consumer) {
+        final int existingCount = size - newCount;
+        if (existingOrder.length < existingCount) {
+            existingOrder = new int[Math.max(existingCount, existingOrder.length * 2)];
+            attributed = new boolean[existingOrder.length];
+        }
+        int count = 0;
+        for (int i = 0; i < 2 * size; i++) {
+            final int point = point(i);
+            if (!isNew(point) && !isEnd(point)) {
+                existingOrder[count++] = point >> 1;
+            }
+        }
+        Arrays.fill(attributed, 0, existingCount, false);
+        nextExisting = 0;
+
+        sweep((begin, end, value, source) -> consumer.accept(begin, end, value, attribute(begin, end, value, source)));
+    }
+
+    /**
+     * Цена, к которой относится интервал [begin, end) со значением цены source
+     */
+    private int attribute(long begin, long end, long value, int source) {
+        final int existingCount = size - newCount;
+        if (source >= newCount) {
+            attributed[source - newCount] = true;
+            return source;
+        }
+        // Интервалы идут по времени, поэтому закончившиеся до интервала цены не пересекутся и со следующими
+        while (nextExisting < existingCount && ends[existingOrder[nextExisting]] <= begin) {
+            nextExisting++;
+        }
+        for (int i = nextExisting; i < existingCount && begins[existingOrder[i]] < end; i++) {
+            final int existing = existingOrder[i];
+            if (values[existing] == value && ends[existing] > begin && !attributed[existing - newCount]) {
+                attributed[existing - newCount] = true;
+                return existing;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Проверка, что точки с номерами из диапазона идут по времени в порядке номеров
+     */
+    private boolean isOrdered(int from, int to) {
+        for (int point = from + 1; point < to; point++) {
+            if (time(point - 1) > time(point)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Линейное слияние упорядоченных точек новых и имеющихся цен.
+     * При равном времени первой берётся точка новой цены, как и при сортировке ключей.
+     */
+    private void mergeOrderedPoints(int newPointsCount, int pointsCount) {
+        int newPoint = 0;
+        int existingPoint = newPointsCount;
+        int position = 0;
+        while (newPoint < newPointsCount && existingPoint < pointsCount) {
+            if (time(existingPoint) < time(newPoint)) {
+                keys[position++] = existingPoint++;
+            } else {
+                keys[position++] = newPoint++;
+            }
+        }
+        while (newPoint < newPointsCount) {
+            keys[position++] = newPoint++;
+        }
+        while (existingPoint < pointsCount) {
+            keys[position++] = existingPoint++;
+        }
+        ordinalMask = -1L;
+    }
+
+    /**
+     * Сортировка номеров точек сравнением времени, если время группы не помещается в ключ
+     */
+    private void sortPoints(int pointsCount) {
+        points = IndexSorter.identity(points, pointsCount);
+        pointSorter.sort(points, pointsCount);
+        for (int i = 0; i < pointsCount; i++) {
+            keys[i] = points[i];
+        }
+        ordinalMask = -1L;
+    }
+
+    /**
+     * Передача интервала между точками со значением цены точки valuePoint
+     */
+    private void accept(IntervalConsumer consumer, int begin, int end, int valuePoint) {
+        final long beginTime = time(begin);
+        final long endTime = time(end);
+        // Если интервал 0, не добавляем
+        if (beginTime != endTime) {
+            consumer.accept(beginTime, endTime, value(valuePoint), valuePoint >> 1);
+        } else {
+            droppedCount++;
+        }
+    }
+
+    /**
+     * @return Количество временных точек группы
+     */
+    int getPointsCount() {
+        return 2 * size;
+    }
+
+    /**
+     * @return Количество интервалов нулевой длины, отброшенных при последнем проходе
+     */
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void add(long begin, long end, long value) {
+        if (size == begins.length) {
+            final int capacity = size * 2;
+            begins = Arrays.copyOf(begins, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        begins[size] = begin;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Номер точки по её позиции в порядке сортировки
+     */
+    private int point(int position) {
+        return (int) (keys[position] & ordinalMask);
+    }
+
+    private long time(int point) {
+        return isEnd(point) ? ends[point >> 1] : begins[point >> 1];
+    }
+
+    private long value(int point) {
+        return values[point >> 1];
+    }
+
+    private boolean isNew(int point) {
+        return (point >> 1) < newCount;
+    }
+
+    private static boolean isEnd(int point) {
+        return (point & 1) != 0;
+    }
+}
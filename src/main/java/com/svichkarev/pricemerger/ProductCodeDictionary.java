@@ -0,0 +1,159 @@
+package com.svichkarev.pricemerger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Словарь кодов товаров: каждому коду сопоставляется порядковый номер.
+ *
+ * <p>Кроме строк, коды ищутся по байтам UTF-8 в таблице с открытой адресацией,
+ * поэтому при разборе файлов строка создаётся только для нового кода.
+ * Коды, добавленные строкой, попадают в таблицу байтов при первом поиске по байтам.
+ */
+public class ProductCodeDictionary {
+
+    private static final int EMPTY = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> codes = new ArrayList<>();
+    private final List<byte[]> codeBytes = new ArrayList<>(); // коды в UTF-8, null - ещё не закодирован
+    private int[] byteTable = newTable(16); // номер кода в ячейке или EMPTY
+    private int byteTableSize; // количество кодов в таблице байтов
+
+    /**
+     * Получить номер кода товара, добавив код в словарь при необходимости
+     *
+     * @param productCode Код товара
+     * @return Номер кода товара в словаре
+     */
+    public int intern(String productCode) {
+        final Integer id = ids.get(productCode);
+        if (id != null) {
+            return id;
+        }
+        final int newId = codes.size();
+        ids.put(productCode, newId);
+        codes.add(productCode);
+        codeBytes.add(null);
+        return newId;
+    }
+
+    /**
+     * Получить номер кода товара, заданного байтами UTF-8, добавив код в словарь при необходимости
+     *
+     * @param bytes  Буфер с кодом товара
+     * @param offset Начало кода в буфере
+     * @param length Длина кода в байтах
+     * @return Номер кода товара в словаре
+     */
+    public int intern(byte[] bytes, int offset, int length) {
+        final int mask = byteTable.length - 1;
+        for (int slot = hash(bytes, offset, length) & mask; ; slot = (slot + 1) & mask) {
+            final int id = byteTable[slot];
+            if (id == EMPTY) {
+                final int newId = intern(new String(bytes, offset, length, StandardCharsets.UTF_8));
+                codeBytes.set(newId, Arrays.copyOfRange(bytes, offset, offset + length));
+                addToByteTable(newId);
+                return newId;
+            }
+            if (equals(codeBytes.get(id), bytes, offset, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Поиск номера кода товара без добавления в словарь
+     *
+     * @param productCode Код товара
+     * @return Номер кода товара в словаре или -1, если кода нет
+     */
+    public int indexOf(String productCode) {
+        final Integer id = ids.get(productCode);
+        return id == null ? EMPTY : id;
+    }
+
+    /**
+     * @param id Номер кода товара в словаре
+     * @return Код товара
+     */
+    public String get(int id) {
+        return codes.get(id);
+    }
+
+    /**
+     * @param id Номер кода товара в словаре
+     * @return Код товара в UTF-8. Массив не копируется и не должен изменяться.
+     */
+    public byte[] getBytes(int id) {
+        byte[] bytes = codeBytes.get(id);
+        if (bytes == null) {
+            bytes = codes.get(id).getBytes(StandardCharsets.UTF_8);
+            codeBytes.set(id, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Количество кодов товаров в словаре
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    private void addToByteTable(int id) {
+        byteTableSize++;
+        // Заполнение таблицы не больше половины
+        if (2 * byteTableSize > byteTable.length) {
+            final int[] oldTable = byteTable;
+            byteTable = newTable(byteTable.length * 2);
+            for (int code : oldTable) {
+                if (code != EMPTY) {
+                    insert(code);
+                }
+            }
+        }
+        insert(id);
+    }
+
+    private void insert(int id) {
+        final byte[] bytes = codeBytes.get(id);
+        final int mask = byteTable.length - 1;
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (byteTable[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        byteTable[slot] = id;
+    }
+
+    private static int[] newTable(int capacity) {
+        final int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash * 31 + bytes[i];
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] code, byte[] bytes, int offset, int length) {
+        if (code.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (code[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package com.svichkarev.pricemerger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * <p>Слияние цен в нескольких процессах JVM на одной машине.
+ *
+ * <p>Новые и имеющиеся цены разбиваются по хэшу ключа цены на сегменты во временных файлах
+ * формата {@link PriceSpillFile}. Сегмент больше заданного размера разбивается повторно,
+ * поэтому перекос размеров групп не оставляет один процесс со всей работой. Каждый сегмент
+ * сливается отдельным процессом {@link ShardWorker}, одновременно работает не больше заданного
+ * количества процессов. Результаты сегментов передаются получателю в порядке сегментов.
+ *
+ * <p>Процессы запускаются той же JVM с тем же classpath, что и координатор. Результат совпадает
+ * с {@link MergerService#mergePrices(List, List)} с точностью до порядка цен.
+ */
+public class ShardCoordinator {
+
+    private final Path directory;
+    private final int workers;
+    private final long maxShardPrices;
+    private final List<String> jvmOptions;
+    private final PricePartitioner partitioner;
+
+    /**
+     * @param directory      Каталог временных файлов
+     * @param workers        Количество сегментов и одновременно работающих процессов
+     * @param maxShardPrices Размер сегмента, начиная с которого он разбивается повторно
+     */
+    public ShardCoordinator(Path directory, int workers, long maxShardPrices) {
+        this(directory, workers, maxShardPrices, Collections.emptyList());
+    }
+
+    /**
+     * @param directory      Каталог временных файлов
+     * @param workers        Количество сегментов и одновременно работающих процессов
+     * @param maxShardPrices Размер сегмента, начиная с которого он разбивается повторно
+     * @param jvmOptions     Параметры JVM процессов сегментов, например {@code -Xmx4g}
+     */
+    public ShardCoordinator(Path directory, int workers, long maxShardPrices, List<String> jvmOptions) {
+        if (workers < 2 || maxShardPrices <= 0) {
+            throw new IllegalArgumentException("Invalid limits: workers=" + workers
+                    + ", maxShardPrices=" + maxShardPrices);
+        }
+        this.directory = directory;
+        this.workers = workers;
+        this.maxShardPrices = maxShardPrices;
+        this.jvmOptions = new ArrayList<>(jvmOptions);
+        this.partitioner = new PricePartitioner(workers);
+    }
+
+    /**
+     * Слияние цен по правилам {@link MergerService#mergePrices(List, List)}
+     *
+     * @param newPrices      Последовательность новых цен
+     * @param existingPrices Последовательность имеющихся цен
+     * @param consumer       Получатель объединённых цен
+     * @return Количество объединённых цен
+     * @throws IOException если процесс сегмента завершился с ошибкой
+     */
+    public long merge(Iterator<Price> newPrices, Iterator<Price> existingPrices, Consumer<Price> consumer)
+            throws IOException, InterruptedException {
+        final Path workDirectory = Files.createTempDirectory(directory, "shards-");
+        try {
+            final List<PricePartitioner.Partition> shards = new ArrayList<>();
+            for (PricePartitioner.Partition part : partitioner.partition(workDirectory, 0, newPrices, existingPrices)) {
+                addShards(workDirectory, part, shards);
+            }
+
+            long merged = 0;
+            for (Path output : runWorkers(workDirectory, shards)) {
+                try (PriceSpillFile.Reader reader = new PriceSpillFile.Reader(output)) {
+                    while (reader.hasNext()) {
+                        consumer.accept(reader.next());
+                        merged++;
+                    }
+                }
+                Files.delete(output);
+            }
+            return merged;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            PricePartitioner.deleteDirectory(workDirectory);
+        }
+    }
+
+    /**
+     * Добавление непустого раздела в сегменты с повторным разбиением слишком большого раздела
+     */
+    private void addShards(Path workDirectory, PricePartitioner.Partition part,
+                           List<PricePartitioner.Partition> shards) throws IOException {
+        if (part.size() == 0) {
+            part.delete();
+        } else if (part.size() > maxShardPrices && part.canSplit()) {
+            for (PricePartitioner.Partition subpart : partitioner.split(workDirectory, part)) {
+                addShards(workDirectory, subpart, shards);
+            }
+        } else {
+            shards.add(part);
+        }
+    }
+
+    /**
+     * Слияние сегментов процессами, не больше {@link #workers} одновременно
+     *
+     * @return Файлы объединённых цен в порядке сегментов
+     */
+    private List<Path> runWorkers(Path workDirectory, List<PricePartitioner.Partition> shards)
+            throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final List<Future<Path>> outputs = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                final int shard = i;
+                outputs.add(executor.submit(() -> runWorker(workDirectory, shard, shards.get(shard))));
+            }
+            final List<Path> paths = new ArrayList<>(outputs.size());
+            for (Future<Path> output : outputs) {
+                paths.add(output.get());
+            }
+            return paths;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Shard worker failed", e.getCause());
+        } finally {
+            // Прерывание потоков завершает ещё работающие процессы
+            executor.shutdownNow();
+        }
+    }
+
+    private Path runWorker(Path workDirectory, int shard, PricePartitioner.Partition part)
+            throws IOException, InterruptedException {
+        final Path output = workDirectory.resolve("merged-" + shard + ".spill");
+        final Path log = workDirectory.resolve("worker-" + shard + ".log");
+
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(part.newPath.toString());
+        command.add(part.existingPath.toString());
+        command.add(output.toString());
+
+        final Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        try {
+            final int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(String.format("Shard worker %d failed with exit code %d:%n%s",
+                        shard, exitCode, new String(Files.readAllBytes(log), Charset.defaultCharset())));
+            }
+        } finally {
+            process.destroyForcibly();
+        }
+        part.delete();
+        return output;
+    }
+}
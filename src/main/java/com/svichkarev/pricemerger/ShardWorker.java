@@ -0,0 +1,41 @@
+package com.svichkarev.pricemerger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * <p>Процесс слияния одного сегмента цен, запускаемый {@link ShardCoordinator}:
+ * <pre>
+ * java -cp ... com.svichkarev.pricemerger.ShardWorker new.spill existing.spill merged.spill
+ * </pre>
+ *
+ * <p>Новые и имеющиеся цены сегмента читаются из файлов формата {@link PriceSpillFile},
+ * сливаются {@link MergerService#mergePrices(List, List)} и записываются в выходной файл того же формата.
+ * При ошибке процесс завершается с кодом 1.
+ */
+public class ShardWorker {
+
+    private ShardWorker() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: ShardWorker <new prices> <existing prices> <output>");
+            System.exit(2);
+        }
+        try {
+            merge(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[2]));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    static void merge(Path newPricesPath, Path existingPricesPath, Path outputPath) throws IOException {
+        final List<Price> mergedPrices = new MergerServiceImpl().mergePrices(
+                PriceSpillFile.readAll(newPricesPath), PriceSpillFile.readAll(existingPricesPath));
+        PriceSpillFile.writeAll(outputPath, mergedPrices);
+    }
+}
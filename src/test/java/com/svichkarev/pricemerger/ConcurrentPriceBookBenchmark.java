@@ -0,0 +1,91 @@
+package com.svichkarev.pricemerger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * <p>Бенчмарк одновременного применения обновлений несколькими писателями:
+ * книга со снимками групп против {@link PriceBook} под одной блокировкой.
+ *
+ * <p>{@link #main} запускает бенчмарк последовательно для 1, 2, 4 ... N потоков,
+ * где N - количество процессоров. Отдельный запуск: {@code -Djmh.args="ConcurrentPriceBookBenchmark -t 4"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ConcurrentPriceBookBenchmark {
+
+    @Param({"50000"})
+    int groups;
+
+    @Param({"32"})
+    int pricesPerGroup;
+
+    private ConcurrentPriceBook concurrentBook;
+    private PriceBook lockedBook;
+    private List<Price> updates;
+
+    @Setup
+    public void setUp() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(groups, pricesPerGroup, 1, 0.2, 0, 42).generate();
+        concurrentBook = new ConcurrentPriceBook(workload.existingPrices);
+        lockedBook = new PriceBook(workload.existingPrices);
+        updates = workload.newPrices;
+    }
+
+    @Benchmark
+    public ConcurrentPriceBook applyConcurrent() {
+        concurrentBook.apply(singletonList(nextUpdate()));
+        return concurrentBook;
+    }
+
+    @Benchmark
+    public PriceBook applyLocked() {
+        final List<Price> update = singletonList(nextUpdate());
+        synchronized (lockedBook) {
+            lockedBook.apply(update);
+        }
+        return lockedBook;
+    }
+
+    private Price nextUpdate() {
+        return updates.get(ThreadLocalRandom.current().nextInt(updates.size()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            final Options options = new OptionsBuilder()
+                    .include(ConcurrentPriceBookBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+            if (threads == processors) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrentPriceBookTest {
+
+    private static final int THREADS = 4;
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    @Test
+    public void applyMergesOnlyAffectedPrices() {
+        final Price exPrice1 = price(0, 10, 100);
+        final Price exPrice2 = price(10, 20, 110);
+        final Price exPrice3 = price(20, 31, 120);
+        final ConcurrentPriceBook book = new ConcurrentPriceBook(asList(exPrice3, exPrice1, exPrice2));
+
+        book.apply(singletonList(price(12, 15, 90)));
+
+        assertThat(book.getPrices("1", 1, 1)).containsExactly(
+                exPrice1, price(10, 12, 110), price(12, 15, 90), price(15, 20, 110), exPrice3
+        );
+        assertThat(book.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void incrementalApplyEqualsPriceBook() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.7, 0.3, 0.5, 17).generate();
+        final PriceBook expected = new PriceBook(workload.existingPrices);
+        final ConcurrentPriceBook book = new ConcurrentPriceBook(workload.existingPrices);
+
+        for (Price newPrice : workload.newPrices) {
+            expected.apply(singletonList(newPrice));
+            book.apply(singletonList(newPrice));
+        }
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(expected.getPrices());
+        assertThat(book.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    public void concurrentApplyToDifferentGroupsEqualsMergePrices() throws Exception {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(2000, 8, 0.7, 0.3, 0.5, 29).generate();
+        final ConcurrentPriceBook book = new ConcurrentPriceBook(workload.existingPrices);
+
+        // Каждый поток применяет цены своих групп одним набором
+        final List<List<Price>> feeds = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            feeds.add(new ArrayList<>());
+        }
+        for (Price newPrice : workload.newPrices) {
+            feeds.get(Math.floorMod(MergerServiceImpl.PriceKey.of(newPrice).hashCode(), THREADS)).add(newPrice);
+        }
+        applyConcurrently(book, feeds, Integer.MAX_VALUE);
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+    }
+
+    @Test
+    public void concurrentApplyToSameGroupKeepsPricesDisjoint() throws Exception {
+        final ConcurrentPriceBook book = new ConcurrentPriceBook(singletonList(price(0, 1000, 1)));
+        final List<List<Price>> feeds = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            final List<Price> feed = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final int begin = (i * 7 + thread * 13) % 990;
+                feed.add(price(begin, begin + 1 + i % 10, thread * 1000 + i));
+            }
+            feeds.add(feed);
+        }
+
+        applyConcurrently(book, feeds, 1);
+
+        final List<Price> prices = book.getPrices("1", 1, 1);
+        assertThat(prices).hasSize((int) book.size());
+        for (int i = 1; i < prices.size(); i++) {
+            assertThat(prices.get(i).getBegin()).isAfterOrEqualTo(prices.get(i - 1).getEnd());
+        }
+        assertThat(prices.get(0).getBegin()).isEqualTo(new Date(0));
+        assertThat(prices.get(prices.size() - 1).getEnd()).isEqualTo(new Date(1000));
+    }
+
+    private static void applyConcurrently(ConcurrentPriceBook book, List<List<Price>> feeds, int batchSize)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(feeds.size());
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (List<Price> feed : feeds) {
+                futures.add(executor.submit(() -> {
+                    for (int from = 0; from < feed.size(); ) {
+                        final int to = from + Math.min(batchSize, feed.size() - from);
+                        book.apply(feed.subList(from, to));
+                        from = to;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Price price(long begin, long end, long value) {
+        return new Price("1", 1, 1, new Date(begin), new Date(end), value);
+    }
+}
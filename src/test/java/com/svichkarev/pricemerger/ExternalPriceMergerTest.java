@@ -0,0 +1,85 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExternalPriceMergerTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("external-merge");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void spilledMergeEqualsMergePrices() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(2000, 8, 0.6, 0.3, 1, 53).generate();
+        final ExternalPriceMerger merger = new ExternalPriceMerger(directory, 500, 8, service);
+
+        final List<Price> merged = new ArrayList<>();
+        final long count = merger.merge(workload.newPrices.iterator(), workload.existingPrices.iterator(), merged::add);
+
+        assertThat(count).isEqualTo(merged.size());
+        assertThat(merged).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isZero();
+        }
+    }
+
+    @Test
+    public void smallInputIsMergedInMemory() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(100, 4, 0.6, 0.3, 0, 59).generate();
+        final ExternalPriceMerger merger = new ExternalPriceMerger(directory, 1_000_000);
+
+        final List<Price> merged = new ArrayList<>();
+        merger.merge(workload.newPrices.iterator(), workload.existingPrices.iterator(), merged::add);
+
+        assertThat(merged).containsExactlyElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+    }
+
+    @Test
+    public void groupLargerThanLimitIsMergedWhole() throws IOException {
+        final List<Price> existingPrices = new ArrayList<>();
+        final List<Price> newPrices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            existingPrices.add(price(i * 10, i * 10 + 10, i));
+            newPrices.add(price(i * 10 + 3, i * 10 + 6, 1000 + i));
+        }
+        final ExternalPriceMerger merger = new ExternalPriceMerger(directory, 10, 4, service);
+
+        final List<Price> merged = new ArrayList<>();
+        merger.merge(newPrices.iterator(), existingPrices.iterator(), merged::add);
+
+        assertThat(merged).containsExactlyInAnyOrderElementsOf(service.mergePrices(newPrices, existingPrices));
+    }
+
+    private static Price price(long begin, long end, long value) {
+        return new Price("1", 1, 1, new Date(begin), new Date(end), value);
+    }
+}
@@ -0,0 +1,166 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergeCacheTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("merge-cache");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void repeatedMergeIsAnsweredFromCache() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.3, 0.5, 43).generate();
+        final MergeCache cache = new MergeCache(64 << 20, 0);
+        final MergerServiceImpl cachedService = new MergerServiceImpl(cache);
+        final List<Price> expected = service.mergePrices(workload.newPrices, workload.existingPrices);
+
+        assertThat(cachedService.mergePrices(workload.newPrices, workload.existingPrices))
+                .containsExactlyElementsOf(expected);
+        final long misses = cache.getMisses();
+        assertThat(cache.getHits()).isZero();
+        assertThat(cache.size()).isEqualTo((int) misses);
+
+        assertThat(cachedService.mergePrices(workload.newPrices, workload.existingPrices))
+                .containsExactlyElementsOf(expected);
+        assertThat(cache.getHits()).isEqualTo(misses);
+        assertThat(cache.getHitRate()).isEqualTo(0.5);
+        assertThat(cache.getMemoryUsage()).isPositive();
+    }
+
+    @Test
+    public void changedGroupIsMergedAgain() {
+        final MergeCache cache = new MergeCache(1 << 20, 0);
+        final MergerServiceImpl cachedService = new MergerServiceImpl(cache);
+        final List<Price> existingPrices = singletonList(price(0, 100, 1));
+
+        final List<Price> newPrices = asList(price(10, 20, 3), price(30, 40, 3));
+
+        cachedService.mergePrices(asList(price(10, 20, 2), price(30, 40, 2)), existingPrices);
+        final List<Price> merged = cachedService.mergePrices(newPrices, existingPrices);
+
+        assertThat(cache.getHits()).isZero();
+        assertThat(cache.getMisses()).isEqualTo(2);
+        assertThat(merged).containsExactlyElementsOf(service.mergePrices(newPrices, existingPrices));
+    }
+
+    @Test
+    public void leastRecentlyUsedGroupsAreEvicted() {
+        final MergeCache cache = new MergeCache(1000, 0);
+        final MergerServiceImpl cachedService = new MergerServiceImpl(cache);
+        for (int i = 0; i < 100; i++) {
+            cachedService.mergePrices(asList(price(10, 20, i), price(30, 40, i)), singletonList(price(0, 100, 1)));
+        }
+
+        assertThat(cache.getMemoryUsage()).isLessThanOrEqualTo(1000);
+        assertThat(cache.size()).isBetween(1, 99);
+
+        cachedService.mergePrices(asList(price(10, 20, 99), price(30, 40, 99)), singletonList(price(0, 100, 1)));
+        assertThat(cache.getHits()).isEqualTo(1);
+        cachedService.mergePrices(asList(price(10, 20, 0), price(30, 40, 0)), singletonList(price(0, 100, 1)));
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void smallGroupsAreNotCached() {
+        final MergeCache cache = new MergeCache(1 << 20, 8);
+        final MergerServiceImpl cachedService = new MergerServiceImpl(cache);
+
+        cachedService.mergePrices(singletonList(price(10, 20, 2)), singletonList(price(0, 100, 1)));
+        cachedService.mergePrices(asList(price(10, 20, 2), price(30, 40, 3), price(50, 60, 4)),
+                singletonList(price(0, 100, 1)));
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void saveAndLoadKeepsEntries() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.7, 0.3, 0.5, 47).generate();
+        final Path path = directory.resolve("merge.cache");
+        final MergeCache cache = new MergeCache(64 << 20, 0);
+        new MergerServiceImpl(cache).mergePrices(workload.newPrices, workload.existingPrices);
+        cache.save(path);
+
+        final MergeCache loadedCache = MergeCache.load(path, 64 << 20, 0);
+        final List<Price> merged = new MergerServiceImpl(loadedCache)
+                .mergePrices(workload.newPrices, workload.existingPrices);
+
+        assertThat(loadedCache.size()).isEqualTo(cache.size());
+        assertThat(loadedCache.getMemoryUsage()).isEqualTo(cache.getMemoryUsage());
+        assertThat(loadedCache.getMisses()).isZero();
+        assertThat(merged).containsExactlyElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+    }
+
+    @Test
+    public void hashCollisionIsMiss() {
+        final MergeCache cache = new MergeCache(1 << 20, 0);
+        final MergeCache.Key key = new MergeCache.Key(new MergerServiceImpl.PriceKey("1", 1, 1), 7, 11);
+        final List<Price> existingPrices = singletonList(price(0, 100, 1));
+        final List<Price> newPrices = asList(price(10, 20, 2), price(30, 40, 2));
+        cache.put(key, newPrices, existingPrices, service.mergePrices(newPrices, existingPrices), 0);
+
+        assertThat(cache.get(key, asList(price(10, 20, 3), price(30, 40, 3)), existingPrices)).isNull();
+        assertThat(cache.get(key, newPrices.subList(0, 1), existingPrices)).isNull();
+        assertThat(cache.get(key, newPrices, asList(price(0, 100, 1), price(100, 200, 1)))).isNull();
+        assertThat(cache.getMisses()).isEqualTo(3);
+
+        assertThat(cache.get(key, newPrices, existingPrices).restore(newPrices.get(0)))
+                .containsExactlyElementsOf(service.mergePrices(newPrices, existingPrices));
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void cacheHitsAreReportedToListener() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.3, 0.5, 53).generate();
+        final MergeStatistics uncachedStatistics = new MergeStatistics();
+        new MergerServiceImpl(uncachedStatistics).mergePrices(workload.newPrices, workload.existingPrices);
+
+        final MergeCache cache = new MergeCache(64 << 20, 0);
+        final MergerServiceImpl cachedService = new MergerServiceImpl(null, 1, Integer.MAX_VALUE,
+                new MergeStatistics(), cache);
+        cachedService.mergePrices(workload.newPrices, workload.existingPrices);
+        final MergeStatistics cachedStatistics = new MergeStatistics();
+        new MergerServiceImpl(null, 1, Integer.MAX_VALUE, cachedStatistics, cache)
+                .mergePrices(workload.newPrices, workload.existingPrices);
+
+        assertThat(cache.getHits()).isPositive();
+        assertThat(cachedStatistics.getPointsHistogram()).containsExactly(uncachedStatistics.getPointsHistogram());
+        assertThat(cachedStatistics.getDroppedIntervals()).isEqualTo(uncachedStatistics.getDroppedIntervals());
+        assertThat(cachedStatistics.getLargestGroupPoints()).isEqualTo(uncachedStatistics.getLargestGroupPoints());
+    }
+
+    private static Price price(long begin, long end, long value) {
+        return new Price("1", 1, 1, new Date(begin), new Date(end), value);
+    }
+}
@@ -0,0 +1,152 @@
+package com.svichkarev.pricemerger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк объединения цен целиком и по отдельным фазам.
+ * Скорость выделения памяти выводится профайлером {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class MergerServiceBenchmark {
+
+    @Param({"1000", "50000"})
+    int groups;
+
+    @Param({"4", "32"})
+    int pricesPerGroup;
+
+    @Param({"0.5"})
+    double overlapRatio;
+
+    @Param({"0.2"})
+    double equalValueRatio;
+
+    @Param({"0", "1"})
+    double skew;
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+    private final MergerServiceImpl parallelService = new MergerServiceImpl(ForkJoinPool.commonPool());
+    // Кэш заполняется на разогреве, поэтому замеряется слияние повторяющихся групп
+    private final MergerServiceImpl cachedService = new MergerServiceImpl(new MergeCache(1L << 30));
+
+    private final PriceBatchMerger batchMerger = new PriceBatchMerger();
+
+    private List<Price> newPrices;
+    private List<Price> existingPrices;
+
+    // Существующие цены и четыре поколения новых цен
+    private final List<List<Price>> generations = new ArrayList<>();
+
+    private PriceBatch newBatch;
+    private PriceBatch existingBatch;
+    private PriceBatch outputBatch;
+
+    // Общие группы цен для пофазовых замеров
+    private final List<List<Price>> commonNewPrices = new ArrayList<>();
+    private final List<List<Price>> commonExistingPrices = new ArrayList<>();
+    private final List<PriceSweep> sortedPoints = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        final PriceCatalogGenerator.Workload workload = new PriceCatalogGenerator(
+                groups, pricesPerGroup, overlapRatio, equalValueRatio, skew, 42).generate();
+        newPrices = workload.newPrices;
+        existingPrices = workload.existingPrices;
+
+        generations.add(existingPrices);
+        for (int i = 0; i < 4; i++) {
+            generations.add(newPrices.subList(i * newPrices.size() / 4, (i + 1) * newPrices.size() / 4));
+        }
+
+        final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+        newBatch = PriceBatch.of(newPrices, dictionary);
+        existingBatch = PriceBatch.of(existingPrices, dictionary);
+        outputBatch = new PriceBatch(dictionary, newPrices.size() + existingPrices.size());
+
+        final PriceKeyIndex priceGroups = service.divideByPriceKey(newPrices, existingPrices);
+        for (int group = 0; group < priceGroups.getGroupCount(); group++) {
+            if (priceGroups.getNewCount(group) > 0 && priceGroups.getExistingCount(group) > 0) {
+                final List<Price> newGroup = priceGroups.getNewPrices(group);
+                final List<Price> existingGroup = priceGroups.getExistingPrices(group);
+                commonNewPrices.add(newGroup);
+                commonExistingPrices.add(existingGroup);
+                sortedPoints.add(service.getSortedPriceTimePoints(newGroup, existingGroup));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Price> mergePrices() {
+        return service.mergePrices(newPrices, existingPrices);
+    }
+
+    @Benchmark
+    public List<Price> mergePricesParallel() {
+        return parallelService.mergePrices(newPrices, existingPrices);
+    }
+
+    @Benchmark
+    public List<Price> mergePricesCached() {
+        return cachedService.mergePrices(newPrices, existingPrices);
+    }
+
+    @Benchmark
+    public List<Price> mergeGenerations() {
+        return service.mergePrices(generations);
+    }
+
+    @Benchmark
+    public List<Price> mergeGenerationsRepeatedly() {
+        List<Price> mergedPrices = generations.get(0);
+        for (List<Price> generation : generations.subList(1, generations.size())) {
+            mergedPrices = service.mergePrices(generation, mergedPrices);
+        }
+        return mergedPrices;
+    }
+
+    @Benchmark
+    public PriceBatch mergePriceBatch() {
+        batchMerger.merge(newBatch, existingBatch, outputBatch);
+        return outputBatch;
+    }
+
+    @Benchmark
+    public PriceKeyIndex divideByPriceKey() {
+        return service.divideByPriceKey(newPrices, existingPrices);
+    }
+
+    @Benchmark
+    public void getSortedPriceTimePoints(Blackhole blackhole) {
+        for (int i = 0; i < commonNewPrices.size(); i++) {
+            blackhole.consume(service.getSortedPriceTimePoints(commonNewPrices.get(i), commonExistingPrices.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void restoreMergedPrices(Blackhole blackhole) {
+        for (int i = 0; i < sortedPoints.size(); i++) {
+            blackhole.consume(service.restoreMergedPrices(sortedPoints.get(i), commonNewPrices.get(i).get(0)));
+        }
+    }
+}
@@ -6,9 +6,19 @@ import org.testng.annotations.Test;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyIterator;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -100,6 +110,22 @@ public class MergerServiceImplTest {
         );
     }
 
+    @Test
+    public void mergeCommonPrices_unorderedExisting() {
+        final Price exPrice1 = price("01.01.2013 00:00:00", "20.01.2013 23:59:59", 100);
+        final Price exPrice2 = price("20.01.2013 00:00:00", "31.01.2013 23:59:59", 120);
+        final Price newPrice = price("15.01.2013 00:00:00", "25.01.2013 23:59:59", 110);
+
+        assertThat(service.mergeCommonPrices(
+                singletonList(newPrice),
+                asList(exPrice2, exPrice1)
+        )).containsExactly(
+                price("01.01.2013 00:00:00", "15.01.2013 00:00:00", 100),
+                price("15.01.2013 00:00:00", "25.01.2013 23:59:59", 110),
+                price("25.01.2013 23:59:59", "31.01.2013 23:59:59", 120)
+        );
+    }
+
     @Test
     public void mergeCommonPrices_neighborsNewBetweenExisting() {
         final Price exPrice1 = price("01.01.2013 00:00:00", "10.01.2013 23:59:59", 80);
@@ -149,6 +175,21 @@ public class MergerServiceImplTest {
         );
     }
 
+    @Test
+    public void mergeCommonPrices_timeRangeWiderThanPackedKey() {
+        final Price exPrice = new Price("1", 1, 1, new Date(Long.MIN_VALUE / 2), new Date(Long.MAX_VALUE / 2), 1);
+        final Price newPrice = price("10.01.2013 00:00:00", "15.01.2013 23:59:59", 2);
+
+        assertThat(service.mergeCommonPrices(
+                singletonList(newPrice),
+                singletonList(exPrice)
+        )).containsExactly(
+                new Price("1", 1, 1, exPrice.getBegin(), newPrice.getBegin(), 1),
+                newPrice,
+                new Price("1", 1, 1, newPrice.getEnd(), exPrice.getEnd(), 1)
+        );
+    }
+
     @Test
     public void newInnerPrice() {
         final Price price1 = price("01.01.2013 00:00:00", "31.01.2013 23:59:59", 1);
@@ -190,6 +231,274 @@ public class MergerServiceImplTest {
         );
     }
 
+    @Test
+    public void mergeStatistics() {
+        final MergeStatistics statistics = new MergeStatistics();
+        final MergerServiceImpl instrumentedService = new MergerServiceImpl(statistics);
+        final Price exPrice1 = price("01.01.2013 00:00:00", "15.01.2013 23:59:59", 80);
+        final Price exPrice2 = price("15.01.2013 23:59:59", "31.01.2013 23:59:59", 100);
+        final Price newPrice1 = price("01.01.2013 00:00:00", "15.01.2013 23:59:59", 90);
+        final Price newPrice2 = price("15.01.2013 23:59:59", "31.01.2013 23:59:59", 95);
+        final Price uniquePrice = new Price("2", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 1);
+
+        instrumentedService.mergePrices(asList(newPrice1, newPrice2), asList(exPrice1, exPrice2, uniquePrice));
+
+        assertThat(statistics.getUniqueGroups()).isEqualTo(1);
+        assertThat(statistics.getCommonGroups()).isEqualTo(1);
+        assertThat(statistics.getLargestGroupPoints()).isEqualTo(8);
+        assertThat(statistics.getPointsHistogram()[3]).isEqualTo(1);
+        assertThat(LongStream.of(statistics.getPointsHistogram()).sum()).isEqualTo(1);
+        assertThat(statistics.getDroppedIntervals()).isEqualTo(1);
+        for (MergeListener.Phase phase : MergeListener.Phase.values()) {
+            assertThat(statistics.getPhaseNanos(phase)).isNotNegative();
+        }
+
+        final MergeStatistics changesStatistics = new MergeStatistics();
+        new MergerServiceImpl(changesStatistics)
+                .mergePriceChanges(asList(newPrice1, newPrice2), asList(exPrice1, exPrice2, uniquePrice));
+
+        assertThat(changesStatistics.getCommonGroups()).isZero();
+        assertThat(LongStream.of(changesStatistics.getPointsHistogram()).sum()).isZero();
+    }
+
+    @Test
+    public void parallelMergeEqualsSerial() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(2000, 8, 0.7, 0.3, 1, 7).generate();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final MergerServiceImpl parallelService = new MergerServiceImpl(pool, 4, 0);
+
+            assertThat(parallelService.mergePrices(workload.newPrices, workload.existingPrices))
+                    .containsExactlyElementsOf(service.mergePrices(workload.newPrices, workload.existingPrices));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void streamingMergeEqualsListMerge() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 6, 0.5, 0.3, 0.5, 11).generate();
+        final List<Price> newPrices = sortedByAttributes(workload.newPrices);
+        final List<Price> existingPrices = sortedByAttributes(workload.existingPrices);
+
+        final List<Price> streamed = new ArrayList<>();
+        service.mergePrices(newPrices.iterator(), existingPrices.iterator(), streamed::add);
+
+        assertThat(streamed)
+                .containsExactlyInAnyOrderElementsOf(service.mergePrices(newPrices, existingPrices));
+    }
+
+    @Test
+    public void priceChanges_newInnerPrice() {
+        final Price exPrice = new Price(10, "1", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 1);
+        final Price newPrice = new Price(20, "1", 1, 1, time("10.01.2013 00:00:00"), time("15.01.2013 23:59:59"), 2);
+        final Price untouchedPrice = new Price(30, "2", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 3);
+
+        final PriceChanges changes = service.mergePriceChanges(
+                singletonList(newPrice),
+                asList(exPrice, untouchedPrice)
+        );
+
+        assertThat(changes.getUpdated()).containsExactly(price("01.01.2013 00:00:00", "10.01.2013 00:00:00", 1));
+        assertThat(changes.getUpdated().get(0).getId()).isEqualTo(10);
+        assertThat(changes.getInserted()).containsExactly(
+                newPrice,
+                price("15.01.2013 23:59:59", "31.01.2013 23:59:59", 1)
+        );
+        assertThat(changes.getInserted().get(0).getId()).isEqualTo(20);
+        assertThat(changes.getInserted().get(1).getId()).isEqualTo(0);
+        assertThat(changes.getDeleted()).isEmpty();
+    }
+
+    @Test
+    public void priceChanges_commonTimeFor4Price() {
+        final Price exPrice1 = price("01.01.2013 00:00:00", "15.01.2013 23:59:59", 80);
+        final Price newPrice1 = price("01.01.2013 00:00:00", "15.01.2013 23:59:59", 90);
+        final Price newPrice2 = price("15.01.2013 23:59:59", "31.01.2013 23:59:59", 95);
+        final Price exPrice2 = price("15.01.2013 23:59:59", "31.01.2013 23:59:59", 100);
+
+        final PriceChanges changes = service.mergePriceChanges(
+                asList(newPrice1, newPrice2),
+                asList(exPrice1, exPrice2)
+        );
+
+        assertThat(changes.getInserted()).containsExactly(newPrice1, newPrice2);
+        assertThat(changes.getUpdated()).isEmpty();
+        assertThat(changes.getDeleted()).containsExactly(exPrice1, exPrice2);
+    }
+
+    @Test
+    public void priceChanges_identicalResend() {
+        final Price exPrice = new Price(42, "1", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 5);
+        final Price newPrice = new Price(7, "1", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 5);
+
+        final PriceChanges changes = service.mergePriceChanges(singletonList(newPrice), singletonList(exPrice));
+
+        assertThat(changes.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void priceChanges_equalValueCover() {
+        final Price exPrice = new Price(42, "1", 1, 1, time("10.01.2013 00:00:00"), time("15.01.2013 23:59:59"), 5);
+        final Price coverPrice = new Price(8, "1", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 5);
+
+        final PriceChanges changes = service.mergePriceChanges(singletonList(coverPrice), singletonList(exPrice));
+
+        assertThat(changes.getInserted()).isEmpty();
+        assertThat(changes.getDeleted()).isEmpty();
+        assertThat(changes.getUpdated()).containsExactly(coverPrice);
+        assertThat(changes.getUpdated().get(0).getId()).isEqualTo(42);
+    }
+
+    @Test
+    public void priceChangesApplyToMergedPrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.6, 0.3, 0.5, 13).generate();
+        final List<Price> newPrices = withIds(workload.newPrices, 1);
+        final List<Price> existingPrices = withIds(workload.existingPrices, newPrices.size() + 1);
+
+        final PriceChanges changes = service.mergePriceChanges(newPrices, existingPrices);
+
+        final Map<Long, Price> applied = new HashMap<>();
+        for (Price price : existingPrices) {
+            applied.put(price.getId(), price);
+        }
+        for (Price price : changes.getDeleted()) {
+            assertThat(applied.remove(price.getId())).isEqualTo(price);
+        }
+        for (Price price : changes.getUpdated()) {
+            assertThat(applied.put(price.getId(), price)).isNotNull();
+        }
+        final List<Price> result = new ArrayList<>(applied.values());
+        result.addAll(changes.getInserted());
+
+        assertThat(result).containsExactlyInAnyOrderElementsOf(service.mergePrices(newPrices, existingPrices));
+        assertThat(changes.size()).isLessThan(existingPrices.size());
+    }
+
+    @Test
+    public void generationsMergeEqualsRepeatedMerge() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(300, 8, 0.6, 0.3, 1, 71).generate();
+        final List<List<Price>> generations = new ArrayList<>();
+        generations.add(workload.existingPrices);
+        generations.add(workload.newPrices.subList(0, workload.newPrices.size() / 3));
+        generations.add(emptyList());
+        generations.add(workload.newPrices.subList(workload.newPrices.size() / 3, workload.newPrices.size()));
+        generations.add(workload.newPrices.subList(0, workload.newPrices.size() / 2));
+
+        List<Price> expected = generations.get(0);
+        for (List<Price> generation : generations.subList(1, generations.size())) {
+            expected = service.mergePrices(generation, expected);
+        }
+
+        assertThat(service.mergePrices(generations)).containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    public void parallelGenerationsMergeEqualsSerial() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.6, 0.3, 1, 73).generate();
+        final List<List<Price>> generations = asList(workload.existingPrices,
+                workload.newPrices.subList(0, workload.newPrices.size() / 2),
+                workload.newPrices.subList(workload.newPrices.size() / 2, workload.newPrices.size()));
+        final MergeStatistics statistics = new MergeStatistics();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final MergerServiceImpl parallelService = new MergerServiceImpl(pool, 4, 0, statistics);
+
+            assertThat(parallelService.mergePrices(generations))
+                    .containsExactlyElementsOf(service.mergePrices(generations));
+            assertThat(statistics.getCommonGroups()).isPositive();
+            assertThat(statistics.getUniqueGroups() + statistics.getCommonGroups())
+                    .isEqualTo(new PriceKeyIndex(workload.newPrices, workload.existingPrices).getGroupCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void newestGenerationWins() {
+        final Price exPrice = price("01.01.2013 00:00:00", "31.01.2013 23:59:59", 1);
+        final Price newPrice1 = price("10.01.2013 00:00:00", "20.01.2013 00:00:00", 2);
+        final Price newPrice2 = price("15.01.2013 00:00:00", "25.01.2013 00:00:00", 3);
+
+        assertThat(service.mergePrices(asList(singletonList(exPrice), singletonList(newPrice1), singletonList(newPrice2))))
+                .containsExactly(
+                        price("01.01.2013 00:00:00", "10.01.2013 00:00:00", 1),
+                        price("10.01.2013 00:00:00", "15.01.2013 00:00:00", 2),
+                        price("15.01.2013 00:00:00", "25.01.2013 00:00:00", 3),
+                        price("25.01.2013 00:00:00", "31.01.2013 23:59:59", 1)
+                );
+    }
+
+    @Test
+    public void singleNewPriceEqualsSweep() {
+        final Random random = new Random(73);
+        final int[] merged = new int[2]; // количество точек и отброшенных интервалов последней группы
+        final MergerServiceImpl instrumentedService = new MergerServiceImpl(new MergeListener() {
+            @Override
+            public void groupMerged(int points, int droppedIntervals) {
+                merged[0] = points;
+                merged[1] = droppedIntervals;
+            }
+        });
+        for (int i = 0; i < 20000; i++) {
+            // Короткий диапазон времени и два значения дают много совпадающих и примыкающих границ
+            final long newBegin = random.nextInt(8);
+            final Price newPrice = new Price(1, "1", 1, 1,
+                    new Date(newBegin), new Date(newBegin + 1 + random.nextInt(4)), 1 + random.nextInt(2));
+            final List<Price> existingPrices = new ArrayList<>();
+            long time = random.nextInt(3);
+            for (int j = 1 + random.nextInt(4); j > 0; j--) {
+                time += random.nextInt(2);
+                final long end = time + 1 + random.nextInt(3);
+                existingPrices.add(new Price(2 + j, "1", 1, 1, new Date(time), new Date(end), 1 + random.nextInt(2)));
+                time = end;
+            }
+            if (random.nextInt(8) == 0) {
+                Collections.reverse(existingPrices);
+            }
+
+            final PriceSweep sweep = service.getSortedPriceTimePoints(singletonList(newPrice), existingPrices);
+            final List<Price> expected = service.restoreMergedPrices(sweep, newPrice);
+            final List<Price> actual = instrumentedService.mergeCommonPrices(singletonList(newPrice), existingPrices);
+
+            assertThat(actual).as("%s + %s", newPrice, existingPrices).containsExactlyElementsOf(expected);
+            assertThat(actual).extracting(Price::getId).containsOnly(0L);
+            assertThat(merged).containsExactly(sweep.getPointsCount(), sweep.getDroppedCount());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void streamingMergeRejectsUnorderedPrices() {
+        final Price price1 = new Price("2", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 1);
+        final Price price2 = new Price("1", 1, 1, time("01.01.2013 00:00:00"), time("31.01.2013 23:59:59"), 2);
+
+        service.mergePrices(asList(price1, price2).iterator(), emptyIterator(), price -> {
+        });
+    }
+
+    private static List<Price> withIds(List<Price> prices, long firstId) {
+        final List<Price> result = new ArrayList<>(prices.size());
+        for (Price price : prices) {
+            result.add(new Price(firstId++, price.getProductCode(), price.getNumber(), price.getDepart(),
+                    price.getBegin(), price.getEnd(), price.getValue()));
+        }
+        return result;
+    }
+
+    private static List<Price> sortedByAttributes(List<Price> prices) {
+        final List<Price> sorted = new ArrayList<>(prices);
+        sorted.sort(Comparator.comparing(Price::getProductCode)
+                .thenComparingInt(Price::getNumber)
+                .thenComparingInt(Price::getDepart)
+                .thenComparing(Price::getBegin));
+        return sorted;
+    }
+
     private static Price price(String begin, String end, long value) {
         return new Price("1", 1, 1, time(begin), time(end), value);
     }
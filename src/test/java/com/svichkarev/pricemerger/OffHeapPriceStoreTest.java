@@ -0,0 +1,88 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapPriceStoreTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    @Test
+    public void mergeEqualsMergePrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.3, 0.5, 31).generate();
+        final OffHeapPriceStore store = new OffHeapPriceStore(new ProductCodeDictionary(), 64);
+
+        store.merge(workload.existingPrices);
+        assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(workload.existingPrices);
+        store.merge(workload.newPrices);
+
+        final List<Price> expected = service.mergePrices(workload.newPrices, workload.existingPrices);
+        assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(store.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    public void incrementalMergeEqualsRepeatedMergePrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.7, 0.3, 0.5, 37).generate();
+        final List<Price> oddPrices = new ArrayList<>();
+        final List<Price> evenPrices = new ArrayList<>();
+        for (int i = 0; i < workload.newPrices.size(); i++) {
+            (i % 2 == 0 ? evenPrices : oddPrices).add(workload.newPrices.get(i));
+        }
+        final OffHeapPriceStore store = new OffHeapPriceStore(new ProductCodeDictionary(), 128);
+        store.merge(workload.existingPrices);
+
+        store.merge(evenPrices);
+        store.merge(oddPrices);
+
+        final List<Price> expected = service.mergePrices(oddPrices,
+                service.mergePrices(evenPrices, workload.existingPrices));
+        assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(expected);
+
+        store.compact();
+        assertThat(store.getGarbageRecords()).isZero();
+        assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    public void grownGroupIsMovedToNewRegion() {
+        final OffHeapPriceStore store = new OffHeapPriceStore(new ProductCodeDictionary(), 16);
+        store.merge(singletonList(price(1, 0, 100, 1)));
+
+        store.merge(singletonList(price(0, 10, 20, 2)));
+        assertThat(store.getGarbageRecords()).isZero();
+        final List<Price> newPrices = asList(price(0, 30, 40, 3), price(0, 50, 60, 4));
+        final List<Price> expected = service.mergePrices(newPrices, store.getPrices("1", 1, 1));
+        store.merge(newPrices);
+
+        assertThat(store.getGarbageRecords()).isEqualTo(3);
+        assertThat(store.getPrices("1", 1, 1)).containsExactlyElementsOf(expected);
+        assertThat(store.getPrices("2", 1, 1)).isEmpty();
+        assertThat(store.getKeyCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void mergeKeepsPriceIds() {
+        final OffHeapPriceStore store = new OffHeapPriceStore(new ProductCodeDictionary(), 16);
+        store.merge(singletonList(price(42, 0, 100, 1)));
+
+        store.merge(singletonList(price(7, 40, 60, 2)));
+        assertThat(store.getPrices("1", 1, 1)).extracting(Price::getId).containsExactly(42L, 7L, 0L);
+
+        store.merge(singletonList(price(8, 0, 40, 1)));
+        assertThat(store.getPrices("1", 1, 1)).extracting(Price::getId).containsExactly(42L, 7L, 0L);
+    }
+
+    private static Price price(long id, long begin, long end, long value) {
+        return new Price(id, "1", 1, 1, new Date(begin), new Date(end), value);
+    }
+}
@@ -0,0 +1,63 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.Date;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriceBatchMergerTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+    private final PriceBatchMerger merger = new PriceBatchMerger();
+
+    @Test
+    public void roundTrip() {
+        final Price price1 = new Price(5, "122856", 1, 1, new Date(1000), new Date(2000), 11000);
+        final Price price2 = new Price(6, "6654", 2, 3, new Date(1500), new Date(2500), 5000);
+
+        final PriceBatch batch = PriceBatch.of(asList(price1, price2), new ProductCodeDictionary());
+
+        assertThat(batch.toPrices()).containsExactly(price1, price2);
+        assertThat(batch.toPrice(0).getId()).isEqualTo(5);
+        assertThat(batch.getDictionary().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void mergeEqualsListMerge() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 6, 0.6, 0.3, 0.8, 3).generate();
+        final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+        final PriceBatch newPrices = PriceBatch.of(workload.newPrices, dictionary);
+        final PriceBatch existingPrices = PriceBatch.of(workload.existingPrices, dictionary);
+        final PriceBatch output = new PriceBatch(dictionary);
+
+        merger.merge(newPrices, existingPrices, output);
+
+        assertThat(output.toPrices()).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+    }
+
+    @Test
+    public void outputBatchIsReused() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(100, 4, 0.5, 0.2, 0, 5).generate();
+        final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+        final PriceBatch newPrices = PriceBatch.of(workload.newPrices, dictionary);
+        final PriceBatch existingPrices = PriceBatch.of(workload.existingPrices, dictionary);
+        final PriceBatch output = new PriceBatch(dictionary);
+
+        merger.merge(newPrices, existingPrices, output);
+        final int size = output.size();
+        merger.merge(newPrices, existingPrices, output);
+
+        assertThat(output.size()).isEqualTo(size);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void differentDictionariesAreRejected() {
+        merger.merge(new PriceBatch(new ProductCodeDictionary()), new PriceBatch(new ProductCodeDictionary()),
+                new PriceBatch(new ProductCodeDictionary()));
+    }
+}
@@ -0,0 +1,55 @@
+package com.svichkarev.pricemerger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Бенчмарк применения небольших обновлений к книге цен
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class PriceBookBenchmark {
+
+    @Param({"50000"})
+    int groups;
+
+    @Param({"32"})
+    int pricesPerGroup;
+
+    private PriceBook book;
+    private List<Price> updates;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(groups, pricesPerGroup, 1, 0.2, 0, 42).generate();
+        book = new PriceBook(workload.existingPrices);
+        updates = workload.newPrices;
+    }
+
+    @Benchmark
+    public PriceBook applySinglePrice() {
+        book.apply(singletonList(updates.get(next)));
+        next = (next + 1) % updates.size();
+        return book;
+    }
+}
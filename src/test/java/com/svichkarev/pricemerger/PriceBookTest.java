@@ -0,0 +1,157 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriceBookTest {
+
+    private static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    @Test
+    public void applyMergesOnlyAffectedPrices() {
+        final Price exPrice1 = price("01.01.2013 00:00:00", "10.01.2013 00:00:00", 100);
+        final Price exPrice2 = price("10.01.2013 00:00:00", "20.01.2013 00:00:00", 110);
+        final Price exPrice3 = price("20.01.2013 00:00:00", "31.01.2013 00:00:00", 120);
+        final PriceBook book = new PriceBook(asList(exPrice1, exPrice2, exPrice3));
+
+        book.apply(singletonList(price("12.01.2013 00:00:00", "15.01.2013 00:00:00", 90)));
+
+        assertThat(book.getPrices("1", 1, 1)).containsExactly(
+                exPrice1,
+                price("10.01.2013 00:00:00", "12.01.2013 00:00:00", 110),
+                price("12.01.2013 00:00:00", "15.01.2013 00:00:00", 90),
+                price("15.01.2013 00:00:00", "20.01.2013 00:00:00", 110),
+                exPrice3
+        );
+        assertThat(book.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void applyExtendsTouchingPriceWithSameValue() {
+        final PriceBook book = new PriceBook(singletonList(price("01.01.2013 00:00:00", "10.01.2013 00:00:00", 100)));
+
+        book.apply(singletonList(price("10.01.2013 00:00:00", "20.01.2013 00:00:00", 100)));
+
+        assertThat(book.getPrices("1", 1, 1)).containsExactly(
+                price("01.01.2013 00:00:00", "20.01.2013 00:00:00", 100)
+        );
+    }
+
+    @Test
+    public void applyEqualsMergePrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.3, 0.5, 13).generate();
+        final PriceBook book = new PriceBook(workload.existingPrices);
+
+        book.apply(workload.newPrices);
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+    }
+
+    @Test
+    public void incrementalApplyEqualsRepeatedMergePrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.7, 0.3, 0.5, 17).generate();
+        final List<Price> oddPrices = new ArrayList<>();
+        final List<Price> evenPrices = new ArrayList<>();
+        for (int i = 0; i < workload.newPrices.size(); i++) {
+            (i % 2 == 0 ? evenPrices : oddPrices).add(workload.newPrices.get(i));
+        }
+        final PriceBook book = new PriceBook(workload.existingPrices);
+
+        book.apply(evenPrices);
+        book.apply(oddPrices);
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(oddPrices, service.mergePrices(evenPrices, workload.existingPrices)));
+    }
+
+    @Test
+    public void applyChangesEqualsMergePriceChanges() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.3, 0.5, 19).generate();
+        final List<Price> existingPrices = new ArrayList<>();
+        for (Price price : workload.existingPrices) {
+            existingPrices.add(new Price(existingPrices.size() + 1, price.getProductCode(), price.getNumber(),
+                    price.getDepart(), price.getBegin(), price.getEnd(), price.getValue()));
+        }
+        final PriceBook book = new PriceBook(existingPrices);
+
+        final PriceChanges changes = book.applyChanges(workload.newPrices);
+
+        final PriceChanges expected = service.mergePriceChanges(workload.newPrices, existingPrices);
+        assertThat(changes.getInserted()).containsExactlyInAnyOrderElementsOf(expected.getInserted());
+        assertThat(changes.getUpdated()).containsExactlyInAnyOrderElementsOf(expected.getUpdated());
+        assertThat(changes.getUpdated()).extracting(Price::getId)
+                .containsExactlyInAnyOrderElementsOf(ids(expected.getUpdated()));
+        assertThat(changes.getDeleted()).containsExactlyInAnyOrderElementsOf(expected.getDeleted());
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, existingPrices));
+    }
+
+    @Test
+    public void applyChangesIgnoresResentPrice() {
+        final Price exPrice = new Price(42, "1", 1, 1, time("01.01.2013 00:00:00"), time("10.01.2013 00:00:00"), 100);
+        final PriceBook book = new PriceBook(singletonList(exPrice));
+
+        final PriceChanges changes = book.applyChanges(
+                singletonList(price("01.01.2013 00:00:00", "10.01.2013 00:00:00", 100)));
+
+        assertThat(changes.isEmpty()).isTrue();
+        assertThat(book.getPrices()).containsExactly(exPrice);
+        assertThat(book.getPrices().get(0).getId()).isEqualTo(42);
+    }
+
+    @Test
+    public void overlappingNewPricesAreAppliedInOrder() {
+        final List<Price> existingPrices = singletonList(price("01.01.2013 00:00:00", "31.01.2013 00:00:00", 100));
+        final List<Price> newPrices = asList(
+                price("05.01.2013 00:00:00", "20.01.2013 00:00:00", 200),
+                price("10.01.2013 00:00:00", "25.01.2013 00:00:00", 300),
+                price("12.01.2013 00:00:00", "15.01.2013 00:00:00", 200));
+        final PriceBook book = new PriceBook(existingPrices);
+        final PriceBook changesBook = new PriceBook(existingPrices);
+        final PriceBook expected = new PriceBook(existingPrices);
+        for (Price newPrice : newPrices) {
+            expected.apply(singletonList(newPrice));
+        }
+
+        book.apply(newPrices);
+        changesBook.applyChanges(newPrices);
+
+        assertThat(book.getPrices()).containsExactlyElementsOf(expected.getPrices());
+        assertThat(changesBook.getPrices()).containsExactlyElementsOf(expected.getPrices());
+        assertThat(book.size()).isEqualTo(expected.size()).isEqualTo(expected.getPrices().size());
+        assertThat(changesBook.size()).isEqualTo(expected.size());
+    }
+
+    private static List<Long> ids(List<Price> prices) {
+        final List<Long> ids = new ArrayList<>(prices.size());
+        for (Price price : prices) {
+            ids.add(price.getId());
+        }
+        return ids;
+    }
+
+    private static Price price(String begin, String end, long value) {
+        return new Price("1", 1, 1, time(begin), time(end), value);
+    }
+
+    private static Date time(String time) {
+        final LocalDateTime dateTime = LocalDateTime.parse(time, formatter);
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,160 @@
+package com.svichkarev.pricemerger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Генератор синтетических каталогов цен для бенчмарков
+ */
+class PriceCatalogGenerator {
+
+    private static final long BASE_TIME = 1356998400000L; // 01.01.2013 00:00:00 UTC
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private final int groups; // количество групп PriceKey
+    private final int pricesPerGroup; // среднее количество имеющихся цен в группе
+    private final double overlapRatio; // доля групп, в которых новые цены пересекаются с имеющимися
+    private final double equalValueRatio; // доля новых цен со значением, равным перекрываемой цене
+    private final double skew; // показатель Ципфа для размеров групп, 0 - равные группы
+    private final long seed;
+
+    /**
+     * @param groups          Количество групп PriceKey
+     * @param pricesPerGroup  Среднее количество имеющихся цен в группе
+     * @param overlapRatio    Доля групп, в которых новые цены пересекаются с имеющимися
+     * @param equalValueRatio Доля новых цен со значением, равным перекрываемой цене
+     * @param skew            Показатель Ципфа для размеров групп, 0 - равные группы
+     * @param seed            Зерно генератора случайных чисел
+     */
+    PriceCatalogGenerator(int groups, int pricesPerGroup, double overlapRatio,
+                          double equalValueRatio, double skew, long seed) {
+        this.groups = groups;
+        this.pricesPerGroup = pricesPerGroup;
+        this.overlapRatio = overlapRatio;
+        this.equalValueRatio = equalValueRatio;
+        this.skew = skew;
+        this.seed = seed;
+    }
+
+    /**
+     * Генерация пары каталогов новых и имеющихся цен
+     *
+     * @return Сгенерированные каталоги
+     */
+    Workload generate() {
+        final Random random = new Random(seed);
+        final int[] groupSizes = groupSizes();
+        final Workload workload = new Workload();
+        for (int group = 0; group < groups; group++) {
+            final String productCode = String.valueOf(100000 + group);
+            final int number = 1 + group % 3;
+            final int depart = 1 + group % 7;
+
+            final List<Price> existingGroup = new ArrayList<>(groupSizes[group]);
+            long time = BASE_TIME + random.nextInt(24) * HOUR;
+            for (int i = 0; i < groupSizes[group]; i++) {
+                // Небольшая часть цен отделена от предыдущих промежутком
+                if (random.nextInt(8) == 0) {
+                    time += (1 + random.nextInt(48)) * HOUR;
+                }
+                final long end = time + (1 + random.nextInt(240)) * HOUR;
+                existingGroup.add(price(productCode, number, depart, time, end, randomValue(random)));
+                time = end;
+            }
+            workload.existingPrices.addAll(existingGroup);
+
+            final int newCount = Math.max(1, groupSizes[group] / 2);
+            if (random.nextDouble() < overlapRatio) {
+                workload.newPrices.addAll(overlappingPrices(random, existingGroup, newCount));
+            } else {
+                workload.newPrices.addAll(sequence(random, "N" + productCode, number, depart,
+                        BASE_TIME + random.nextInt(24) * HOUR, newCount));
+            }
+        }
+        return workload;
+    }
+
+    /**
+     * Размеры групп по закону Ципфа с сохранением общего количества цен
+     */
+    private int[] groupSizes() {
+        final double[] weights = new double[groups];
+        double total = 0;
+        for (int i = 0; i < groups; i++) {
+            weights[i] = 1 / Math.pow(i + 1, skew);
+            total += weights[i];
+        }
+        final int[] sizes = new int[groups];
+        final double scale = (double) groups * pricesPerGroup / total;
+        for (int i = 0; i < groups; i++) {
+            sizes[i] = Math.max(1, (int) Math.round(weights[i] * scale));
+        }
+        return sizes;
+    }
+
+    /**
+     * Новые цены, идущие подряд внутри периода действия имеющихся цен группы
+     */
+    private List<Price> overlappingPrices(Random random, List<Price> existingGroup, int count) {
+        final Price first = existingGroup.get(0);
+        final Price start = existingGroup.get(random.nextInt(existingGroup.size()));
+        final List<Price> prices = sequence(random, first.getProductCode(), first.getNumber(), first.getDepart(),
+                start.getBegin().getTime() + random.nextInt(12) * HOUR, count);
+
+        final List<Price> result = new ArrayList<>(prices.size());
+        for (Price price : prices) {
+            long value = price.getValue();
+            if (random.nextDouble() < equalValueRatio) {
+                value = coveringValue(existingGroup, price.getBegin().getTime(), value);
+            }
+            result.add(price(price.getProductCode(), price.getNumber(), price.getDepart(),
+                    price.getBegin().getTime(), price.getEnd().getTime(), value));
+        }
+        return result;
+    }
+
+    /**
+     * Последовательность примыкающих друг к другу цен
+     */
+    private static List<Price> sequence(Random random, String productCode, int number, int depart,
+                                        long begin, int count) {
+        final List<Price> prices = new ArrayList<>(count);
+        long time = begin;
+        for (int i = 0; i < count; i++) {
+            final long end = time + (1 + random.nextInt(240)) * HOUR;
+            prices.add(price(productCode, number, depart, time, end, randomValue(random)));
+            time = end;
+        }
+        return prices;
+    }
+
+    /**
+     * Значение имеющейся цены, действующей в момент времени
+     */
+    private static long coveringValue(List<Price> existingGroup, long time, long defaultValue) {
+        for (Price price : existingGroup) {
+            if (price.getBegin().getTime() <= time && time < price.getEnd().getTime()) {
+                return price.getValue();
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long randomValue(Random random) {
+        return 100 + random.nextInt(100000);
+    }
+
+    private static Price price(String productCode, int number, int depart, long begin, long end, long value) {
+        return new Price(productCode, number, depart, new Date(begin), new Date(end), value);
+    }
+
+    /**
+     * Пара каталогов для объединения
+     */
+    static class Workload {
+        final List<Price> newPrices = new ArrayList<>();
+        final List<Price> existingPrices = new ArrayList<>();
+    }
+}
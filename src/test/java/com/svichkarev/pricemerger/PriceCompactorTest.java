@@ -0,0 +1,73 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriceCompactorTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    @Test
+    public void touchingPricesWithSameValueAreFused() {
+        final List<Price> compacted = new ArrayList<>();
+        final PriceCompactor compactor = new PriceCompactor(compacted::add);
+
+        asList(price(0, "1", 0, 10, 1), price(7, "1", 10, 20, 1), price(8, "1", 20, 30, 1),
+                price(9, "1", 31, 40, 1), price(0, "1", 40, 50, 2), price(0, "2", 50, 60, 2))
+                .forEach(compactor);
+        compactor.flush();
+
+        assertThat(compacted).containsExactly(price(7, "1", 0, 30, 1), price(9, "1", 31, 40, 1),
+                price(0, "1", 40, 50, 2), price(0, "2", 50, 60, 2));
+        assertThat(compacted.get(0).getId()).isEqualTo(7);
+        assertThat(compactor.getRemovedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void streamingMergeOutputIsCompacted() {
+        // Имеющаяся цена примыкает к концу новой с тем же значением, но слиянием не объединяется
+        final Price newPrice = price(0, "1", 0, 10, 1);
+        final Price exPrice = price(5, "1", 10, 20, 1);
+        final List<Price> compacted = new ArrayList<>();
+        final PriceCompactor compactor = new PriceCompactor(compacted::add);
+
+        service.mergePrices(singletonList(newPrice).iterator(), singletonList(exPrice).iterator(), compactor);
+        compactor.flush();
+
+        assertThat(service.mergePrices(singletonList(newPrice), singletonList(exPrice))).hasSize(2);
+        assertThat(compacted).containsExactly(price(0, "1", 0, 20, 1));
+        assertThat(compactor.getRemovedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void compactionKeepsEffectivePrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.7, 0.5, 0.5, 79).generate();
+        final List<Price> merged = service.mergePrices(workload.newPrices, workload.existingPrices);
+
+        final List<Price> compacted = PriceCompactor.compact(merged);
+
+        assertThat(compacted.size()).isLessThan(merged.size());
+        final PriceLookupIndex mergedIndex = new PriceLookupIndex(merged);
+        final PriceLookupIndex compactedIndex = new PriceLookupIndex(compacted);
+        for (Price price : merged) {
+            for (long time : new long[]{price.getBegin().getTime() - 1, price.getBegin().getTime(),
+                    price.getEnd().getTime() - 1, price.getEnd().getTime()}) {
+                assertThat(compactedIndex.getValue(price.getProductCode(), price.getNumber(), price.getDepart(), time, -1))
+                        .isEqualTo(mergedIndex.getValue(price.getProductCode(), price.getNumber(), price.getDepart(), time, -1));
+            }
+        }
+        assertThat(PriceCompactor.compact(compacted)).containsExactlyElementsOf(compacted);
+    }
+
+    private static Price price(long id, String productCode, long begin, long end, long value) {
+        return new Price(id, productCode, 1, 1, new Date(begin), new Date(end), value);
+    }
+}
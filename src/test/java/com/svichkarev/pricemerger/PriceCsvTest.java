@@ -0,0 +1,174 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PriceCsvTest {
+
+    private static final ZoneOffset MOSCOW = ZoneOffset.ofHours(3);
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("price-csv");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void readParsesFieldsInOffset() throws IOException {
+        final Path path = write("prices.csv",
+                "productCode,number,depart,begin,end,value\r\n" +
+                "122856,1,1,2013-01-01 00:00:00,2013-01-31 23:59:59.500,11000\r\n" +
+                "\n" +
+                "товар-6654,2,3,2012-02-29 12:30:00,2013-03-01 00:00:00,-5");
+
+        final PriceBatch prices = PriceCsvReader.read(path, new ProductCodeDictionary(), MOSCOW);
+
+        assertThat(prices.toPrices()).containsExactly(
+                new Price("122856", 1, 1, time(2013, 1, 1, 0, 0), new Date(time(2013, 1, 31, 23, 59).getTime() + 59500), 11000),
+                new Price("товар-6654", 2, 3, time(2012, 2, 29, 12, 30), time(2013, 3, 1, 0, 0), -5)
+        );
+    }
+
+    @Test
+    public void malformedLineIsReportedWithLineNumber() throws IOException {
+        final Path path = write("prices.csv",
+                "122856,1,1,2013-01-01 00:00:00,2013-01-31 23:59:59,11000\n" +
+                "122856,1,1,2013-02-30 00:00:00,2013-03-31 23:59:59,11000\n");
+
+        assertThatThrownBy(() -> PriceCsvReader.read(path, new ProductCodeDictionary(), ZoneOffset.UTC))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("prices.csv:2");
+    }
+
+    @Test
+    public void writeAndReadRoundTrip() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.5, 0.3, 0.5, 31).generate();
+        final Path path = directory.resolve("prices.csv");
+
+        try (PriceCsvWriter writer = new PriceCsvWriter(path, MOSCOW)) {
+            for (Price price : workload.existingPrices) {
+                writer.write(price);
+            }
+        }
+
+        assertThat(PriceCsvReader.read(path, new ProductCodeDictionary(), MOSCOW).toPrices())
+                .containsExactlyElementsOf(workload.existingPrices);
+    }
+
+    @Test
+    public void quotedProductCodesRoundTrip() throws IOException {
+        final List<Price> prices = asList(
+                new Price("12,8\"A\"", 1, 1, time(2013, 1, 1, 0, 0), time(2013, 1, 2, 0, 0), 100),
+                new Price("\"", 1, 1, time(2013, 1, 1, 0, 0), time(2013, 1, 2, 0, 0), 200),
+                new Price(",", 2, 1, time(2013, 1, 1, 0, 0), time(2013, 1, 2, 0, 0), 300));
+        final Path path = directory.resolve("prices.csv");
+
+        writeAll(path, prices);
+
+        assertThat(PriceCsvReader.read(path, new ProductCodeDictionary(), MOSCOW).toPrices())
+                .containsExactlyElementsOf(prices);
+        try (PriceCsvWriter writer = new PriceCsvWriter(directory.resolve("invalid.csv"), MOSCOW)) {
+            assertThatThrownBy(() -> writer.write(
+                    new Price("12\n8", 1, 1, time(2013, 1, 1, 0, 0), time(2013, 1, 2, 0, 0), 100)))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void readInChunks() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(100, 8, 0.5, 0.3, 0.5, 37).generate();
+        final Path path = directory.resolve("prices.csv");
+        try (PriceCsvWriter writer = new PriceCsvWriter(path, ZoneOffset.UTC)) {
+            writer.write(PriceBatch.of(workload.existingPrices, new ProductCodeDictionary()));
+        }
+
+        final PriceBatch prices = new PriceBatch(new ProductCodeDictionary());
+        try (PriceCsvReader reader = new PriceCsvReader(path, ZoneOffset.UTC)) {
+            int read;
+            while ((read = reader.read(prices, 7)) > 0) {
+                assertThat(read).isLessThanOrEqualTo(7);
+            }
+        }
+
+        assertThat(prices.toPrices()).containsExactlyElementsOf(workload.existingPrices);
+    }
+
+    @Test
+    public void mergeFilesEqualsMergePrices() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.6, 0.3, 0.5, 41).generate();
+        final Path newPath = directory.resolve("new.csv");
+        final Path existingPath = directory.resolve("existing.csv");
+        final Path outputPath = directory.resolve("merged.csv");
+        writeAll(newPath, workload.newPrices);
+        writeAll(existingPath, workload.existingPrices);
+
+        final long merged = PriceFileMerger.merge(newPath, existingPath, outputPath, MOSCOW);
+
+        final List<Price> expected = service.mergePrices(workload.newPrices, workload.existingPrices);
+        assertThat(merged).isEqualTo(expected.size());
+        assertThat(PriceCsvReader.read(outputPath, new ProductCodeDictionary(), MOSCOW).toPrices())
+                .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    public void dictionaryInternsBytesAndStringsTogether() {
+        final ProductCodeDictionary dictionary = new ProductCodeDictionary();
+        final byte[] line = "x,122856,6654".getBytes(StandardCharsets.UTF_8);
+
+        final int stringId = dictionary.intern("122856");
+        for (int i = 0; i < 100; i++) {
+            dictionary.intern("code" + i);
+        }
+
+        assertThat(dictionary.intern(line, 2, 6)).isEqualTo(stringId);
+        final int bytesId = dictionary.intern(line, 9, 4);
+        assertThat(dictionary.intern("6654")).isEqualTo(bytesId);
+        assertThat(dictionary.getBytes(bytesId)).isEqualTo("6654".getBytes(StandardCharsets.UTF_8));
+        assertThat(dictionary.size()).isEqualTo(102);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), asList(content), StandardCharsets.UTF_8);
+    }
+
+    private static void writeAll(Path path, List<Price> prices) throws IOException {
+        try (PriceCsvWriter writer = new PriceCsvWriter(path, MOSCOW)) {
+            for (Price price : prices) {
+                writer.write(price);
+            }
+        }
+    }
+
+    private static Date time(int year, int month, int day, int hour, int minute) {
+        return Date.from(LocalDateTime.of(year, month, day, hour, minute).toInstant(MOSCOW));
+    }
+}
@@ -0,0 +1,192 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PriceIngestionPipelineTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    @Test
+    public void fullBatchOfDistinctGroupsEqualsMergePriceChanges() throws InterruptedException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.7, 0.3, 0.5, 23).generate();
+        final Map<MergerServiceImpl.PriceKey, Price> groupPrices = new LinkedHashMap<>();
+        for (Price price : workload.newPrices) {
+            groupPrices.putIfAbsent(MergerServiceImpl.PriceKey.of(price), price);
+        }
+        final List<Price> newPrices = new ArrayList<>(groupPrices.values());
+        final PriceBook book = new PriceBook(workload.existingPrices);
+        final List<PriceChanges> published = new ArrayList<>();
+
+        final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(book, 128,
+                newPrices.size(), 1, TimeUnit.MINUTES, published::add);
+        try {
+            for (Price price : newPrices) {
+                pipeline.submit(price);
+            }
+        } finally {
+            pipeline.close();
+        }
+        assertThat(pipeline.getStatistics().getBatches()).isEqualTo(1);
+        assertThat(pipeline.getStatistics().getPrices()).isEqualTo(newPrices.size());
+
+        final PriceChanges expected = service.mergePriceChanges(newPrices, workload.existingPrices);
+        assertThat(published).hasSize(1);
+        assertThat(published.get(0).getInserted()).containsExactlyInAnyOrderElementsOf(expected.getInserted());
+        assertThat(published.get(0).getUpdated()).containsExactlyInAnyOrderElementsOf(expected.getUpdated());
+        assertThat(published.get(0).getDeleted()).containsExactlyInAnyOrderElementsOf(expected.getDeleted());
+    }
+
+    @Test
+    public void singlePriceBatchesEqualIncrementalApply() throws InterruptedException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(200, 8, 0.7, 0.3, 0.5, 29).generate();
+        final PriceBook book = new PriceBook(workload.existingPrices);
+        final PriceBook expected = new PriceBook(workload.existingPrices);
+
+        final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(book, 16, 1, 1, TimeUnit.MINUTES,
+                changes -> {
+                });
+        try {
+            for (Price price : workload.newPrices) {
+                pipeline.submit(price);
+                expected.apply(singletonList(price));
+            }
+        } finally {
+            pipeline.close();
+        }
+        assertThat(pipeline.getStatistics().getBatches()).isEqualTo(workload.newPrices.size());
+        assertThat(pipeline.getStatistics().getLargestBatch()).isEqualTo(1);
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(expected.getPrices());
+    }
+
+    @Test
+    public void batchOfOneGroupEqualsIncrementalApply() throws InterruptedException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(200, 8, 0.7, 0.3, 0.5, 31).generate();
+        final List<Price> newPrices = new ArrayList<>(workload.newPrices);
+        newPrices.addAll(asList(price(0, 100, 1), price(50, 150, 2), price(20, 60, 3), price(50, 150, 2)));
+        final PriceBook book = new PriceBook(workload.existingPrices);
+        final PriceBook expected = new PriceBook(workload.existingPrices);
+        final List<PriceChanges> published = new ArrayList<>();
+
+        final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(book, 128,
+                newPrices.size(), 1, TimeUnit.MINUTES, published::add);
+        try {
+            for (Price price : newPrices) {
+                pipeline.submit(price);
+                expected.apply(singletonList(price));
+            }
+        } finally {
+            pipeline.close();
+        }
+        assertThat(pipeline.getStatistics().getBatches()).isEqualTo(1);
+        assertThat(published.size()).isGreaterThan(1);
+
+        assertThat(book.getPrices()).containsExactlyInAnyOrderElementsOf(expected.getPrices());
+        assertThat(book.getPrices("1", 1, 1)).containsExactly(
+                price(0, 20, 1), price(20, 50, 3), price(50, 150, 2));
+        assertThat(book.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    public void pricesAcceptedBeforeCloseArePublished() throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(new PriceBook(), 1024, 16, 0,
+                    TimeUnit.MILLISECONDS, changes -> {
+            });
+            final AtomicLong accepted = new AtomicLong();
+            final Thread producer = new Thread(() -> {
+                try {
+                    for (long time = 0; ; time += 10) {
+                        if (pipeline.offer(price(time, time + 10, 1))) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                } catch (IllegalStateException e) {
+                    // Конвейер закрыт
+                }
+            });
+            producer.start();
+            Thread.sleep(1);
+            pipeline.close();
+            producer.join();
+
+            assertThat(pipeline.getStatistics().getPrices()).isEqualTo(accepted.get());
+        }
+    }
+
+    @Test
+    public void timeWindowClosesBatch() throws InterruptedException {
+        final CountDownLatch published = new CountDownLatch(1);
+        try (PriceIngestionPipeline pipeline = new PriceIngestionPipeline(new PriceBook(), 16, 100,
+                10, TimeUnit.MILLISECONDS, changes -> published.countDown())) {
+            pipeline.submit(price(0, 10, 1));
+
+            assertThat(published.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(pipeline.getStatistics().getLatencyHistogram()).isNotEqualTo(new long[Integer.SIZE]);
+        }
+    }
+
+    @Test
+    public void fullQueueRejectsOffer() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(new PriceBook(), 2, 1, 0,
+                TimeUnit.MILLISECONDS, changes -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            // Первая цена задерживается в получателе, следующие две заполняют очередь
+            long time = 0;
+            while (pipeline.offer(price(time, time + 10, 1))) {
+                time += 10;
+            }
+            assertThat(time).isBetween(20L, 30L);
+        } finally {
+            release.countDown();
+            pipeline.close();
+        }
+        assertThat(pipeline.getStatistics().getPrices()).isEqualTo(pipeline.getStatistics().getBatches());
+        assertThatThrownBy(() -> pipeline.submit(price(0, 10, 1))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void consumerErrorStopsPipeline() throws InterruptedException {
+        final PriceIngestionPipeline pipeline = new PriceIngestionPipeline(new PriceBook(), 1, 1, 0,
+                TimeUnit.MILLISECONDS, changes -> {
+            throw new AssertionError("consumer failed");
+        });
+        pipeline.submit(price(0, 10, 1));
+
+        // Очередь на одну цену: приём не должен ждать остановленный поток конвейера бесконечно
+        assertThatThrownBy(() -> {
+            for (long time = 10; ; time += 10) {
+                pipeline.submit(price(time, time + 10, 1));
+            }
+        }).isInstanceOf(IllegalStateException.class).hasCauseInstanceOf(AssertionError.class);
+        assertThatThrownBy(pipeline::close).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static Price price(long begin, long end, long value) {
+        return new Price("1", 1, 1, new Date(begin), new Date(end), value);
+    }
+}
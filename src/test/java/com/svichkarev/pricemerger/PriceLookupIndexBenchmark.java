@@ -0,0 +1,72 @@
+package com.svichkarev.pricemerger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк поиска действующей цены и перестроения индекса после слияния
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class PriceLookupIndexBenchmark {
+
+    @Param({"50000"})
+    int groups;
+
+    @Param({"32"})
+    int pricesPerGroup;
+
+    private List<Price> mergedPrices;
+    private PriceLookupIndex index;
+    private Price[] queries; // цены в случайном порядке, ищутся по началу действия
+
+    @Setup
+    public void setUp() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(groups, pricesPerGroup, 0.5, 0.2, 0, 42).generate();
+        mergedPrices = new MergerServiceImpl().mergePrices(workload.newPrices, workload.existingPrices);
+        index = new PriceLookupIndex(mergedPrices);
+        queries = mergedPrices.toArray(new Price[0]);
+        Collections.shuffle(Arrays.asList(queries), new Random(42));
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long getValue(Cursor cursor) {
+        final Price price = queries[cursor.next];
+        cursor.next = (cursor.next + 1) % queries.length;
+        return index.getValue(price.getProductCode(), price.getNumber(), price.getDepart(),
+                price.getBegin().getTime(), -1);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PriceLookupIndex rebuild() {
+        return new PriceLookupIndex(mergedPrices);
+    }
+}
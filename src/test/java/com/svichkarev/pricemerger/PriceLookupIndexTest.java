@@ -0,0 +1,63 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PriceLookupIndexTest {
+
+    @Test
+    public void priceIsEffectiveFromBeginToEnd() {
+        final Price first = new Price("1", 1, 1, new Date(10), new Date(20), 100);
+        final Price second = new Price("1", 1, 1, new Date(20), new Date(30), 200);
+        final Price other = new Price("1", 2, 1, new Date(0), new Date(50), 300);
+        final PriceLookupIndex index = new PriceLookupIndex(Arrays.asList(second, other, first));
+
+        assertThat(index.getPrice("1", 1, 1, new Date(9))).isNull();
+        assertThat(index.getPrice("1", 1, 1, new Date(10))).isSameAs(first);
+        assertThat(index.getPrice("1", 1, 1, new Date(19))).isSameAs(first);
+        assertThat(index.getPrice("1", 1, 1, new Date(20))).isSameAs(second);
+        assertThat(index.getPrice("1", 1, 1, new Date(30))).isNull();
+        assertThat(index.getPrice("1", 2, 1, new Date(30))).isSameAs(other);
+        assertThat(index.getPrice("2", 1, 1, new Date(15))).isNull();
+        assertThat(index.getValue("1", 1, 1, 25, -1)).isEqualTo(200);
+        assertThat(index.getValue("1", 1, 1, 35, -1)).isEqualTo(-1);
+        assertThat(index.snapshot(new Date(15))).containsExactlyInAnyOrder(first, other);
+    }
+
+    @Test
+    public void snapshotOfMergedPrices() {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.6, 0.3, 1, 67).generate();
+        final List<Price> mergedPrices =
+                new MergerServiceImpl().mergePrices(workload.newPrices, workload.existingPrices);
+        final PriceLookupIndex index = new PriceLookupIndex(mergedPrices);
+
+        assertThat(index.size()).isEqualTo(mergedPrices.size());
+        for (Price price : mergedPrices.subList(0, 100)) {
+            final Date time = new Date(price.getBegin().getTime() + 1);
+            final List<Price> expected = new ArrayList<>();
+            for (Price candidate : mergedPrices) {
+                if (candidate.getBegin().getTime() <= time.getTime() && time.getTime() < candidate.getEnd().getTime()) {
+                    expected.add(candidate);
+                }
+            }
+            assertThat(index.snapshot(time)).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    public void overlappingPricesAreRejected() {
+        final List<Price> prices = Arrays.asList(
+                new Price("1", 1, 1, new Date(10), new Date(20), 100),
+                new Price("1", 1, 1, new Date(15), new Date(30), 200));
+
+        assertThatThrownBy(() -> new PriceLookupIndex(prices)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,189 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriceStoreTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("price-store");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void segmentRoundTrip() throws IOException {
+        final Price price1 = new Price(7, "6654", 1, 2, new Date(1000), new Date(2000), 4000);
+        final Price price2 = new Price(8, "122856", 2, 1, new Date(1500), new Date(2500), 92000);
+        final Price price3 = new Price(9, "122856", 1, 1, new Date(500), new Date(900), 11000);
+        final Path path = directory.resolve("segment.prices");
+
+        PriceSegmentWriter.write(path, asList(price1, price2, price3));
+
+        try (PriceSegment segment = PriceSegment.open(path)) {
+            assertThat(segment.getKeyCount()).isEqualTo(3);
+            assertThat(segment.findKey("6654", 1, 3)).isEqualTo(-1);
+            final int key = segment.findKey("122856", 2, 1);
+            assertThat(segment.getPrices(key)).containsExactly(price2);
+            assertThat(segment.getPrices(key).get(0).getId()).isEqualTo(8);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unorderedGroupsAreRejected() throws IOException {
+        try (PriceSegmentWriter writer = new PriceSegmentWriter(directory.resolve("segment.prices"))) {
+            writer.startGroup("2", 1, 1);
+            writer.startGroup("1", 1, 1);
+        }
+    }
+
+    @Test
+    public void mergeEqualsMergePrices() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(1000, 8, 0.6, 0.3, 0.5, 19).generate();
+        try (PriceStore store = PriceStore.open(directory)) {
+            store.load(workload.existingPrices);
+
+            store.merge(workload.newPrices);
+
+            assertThat(store.getDeltaCount()).isEqualTo(1);
+            assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(
+                    service.mergePrices(workload.newPrices, workload.existingPrices));
+        }
+    }
+
+    @Test
+    public void compactFoldsDeltasIntoBase() throws IOException {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(500, 8, 0.6, 0.3, 0.5, 23).generate();
+        final List<Price> firstPrices = new ArrayList<>();
+        final List<Price> secondPrices = new ArrayList<>();
+        for (int i = 0; i < workload.newPrices.size(); i++) {
+            (i % 2 == 0 ? firstPrices : secondPrices).add(workload.newPrices.get(i));
+        }
+        final List<Price> expected = service.mergePrices(secondPrices,
+                service.mergePrices(firstPrices, workload.existingPrices));
+
+        try (PriceStore store = PriceStore.open(directory)) {
+            store.load(workload.existingPrices);
+            store.merge(firstPrices);
+            store.merge(secondPrices);
+            assertThat(store.getDeltaCount()).isEqualTo(2);
+
+            store.compact();
+
+            assertThat(store.getDeltaCount()).isEqualTo(0);
+            assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(expected);
+        }
+        try (PriceStore store = PriceStore.open(directory)) {
+            assertThat(store.getPrices()).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    public void reopenKeepsDeltas() throws IOException {
+        final Price existingPrice = new Price("1", 1, 1, new Date(1000), new Date(5000), 100);
+        final Price newPrice = new Price("1", 1, 1, new Date(2000), new Date(3000), 200);
+        try (PriceStore store = PriceStore.open(directory)) {
+            store.load(asList(existingPrice));
+            store.merge(asList(newPrice));
+        }
+
+        try (PriceStore store = PriceStore.open(directory)) {
+            assertThat(store.getDeltaCount()).isEqualTo(1);
+            assertThat(store.getPrices("1", 1, 1)).containsExactly(
+                    new Price("1", 1, 1, new Date(1000), new Date(2000), 100),
+                    newPrice,
+                    new Price("1", 1, 1, new Date(3000), new Date(5000), 100)
+            );
+        }
+    }
+
+    @Test
+    public void newGroupIsWrittenOrderedAndWithoutTempFiles() throws IOException {
+        final Price laterPrice = new Price(2, "1", 1, 1, new Date(3000), new Date(4000), 200);
+        final Price earlierPrice = new Price(1, "1", 1, 1, new Date(1000), new Date(2000), 100);
+        try (PriceStore store = PriceStore.open(directory)) {
+            final Path deltaPath = store.merge(asList(laterPrice, earlierPrice));
+
+            assertThat(store.getPrices("1", 1, 1)).containsExactly(earlierPrice, laterPrice);
+            try (Stream<Path> files = Files.list(directory)) {
+                assertThat(files).containsExactly(deltaPath);
+            }
+        }
+    }
+
+    @Test
+    public void loadSupersedesDeltasLeftByCrash() throws IOException {
+        final Price oldPrice = new Price("1", 1, 1, new Date(1000), new Date(5000), 100);
+        final Price newPrice = new Price("1", 1, 1, new Date(2000), new Date(3000), 200);
+        final Price loadedPrice = new Price("2", 1, 1, new Date(1000), new Date(2000), 300);
+        final Path deltaCopy = Files.createTempFile("price-delta", ".prices");
+        try {
+            final Path deltaPath;
+            try (PriceStore store = PriceStore.open(directory)) {
+                store.load(asList(oldPrice));
+                deltaPath = store.merge(asList(newPrice));
+                Files.copy(deltaPath, deltaCopy, StandardCopyOption.REPLACE_EXISTING);
+                store.load(asList(loadedPrice));
+            }
+            // Сбой после переименования базового сегмента до удаления сегментов изменений
+            Files.copy(deltaCopy, deltaPath);
+
+            try (PriceStore store = PriceStore.open(directory)) {
+                assertThat(store.getDeltaCount()).isEqualTo(0);
+                assertThat(store.getPrices()).containsExactly(loadedPrice);
+                assertThat(deltaPath).doesNotExist();
+
+                store.merge(asList(newPrice));
+                assertThat(store.getPrices()).containsExactlyInAnyOrder(loadedPrice, newPrice);
+            }
+        } finally {
+            Files.delete(deltaCopy);
+        }
+    }
+
+    @Test
+    public void longProductCodeRoundTrip() throws IOException {
+        final Price price = new Price(new String(new char[40000]).replace('\0', 'a'), 1, 1,
+                new Date(1000), new Date(2000), 100);
+        final Path path = directory.resolve("segment.prices");
+
+        PriceSegmentWriter.write(path, asList(price));
+
+        try (PriceSegment segment = PriceSegment.open(path)) {
+            assertThat(segment.getPrices(0)).containsExactly(price);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void tooLongProductCodeIsRejected() throws IOException {
+        try (PriceSegmentWriter writer = new PriceSegmentWriter(directory.resolve("segment.prices"))) {
+            writer.startGroup(new String(new char[70000]).replace('\0', 'a'), 1, 1);
+        }
+    }
+}
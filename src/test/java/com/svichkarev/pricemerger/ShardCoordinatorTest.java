@@ -0,0 +1,82 @@
+package com.svichkarev.pricemerger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ShardCoordinatorTest {
+
+    private final MergerServiceImpl service = new MergerServiceImpl();
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("shard-merge");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shardedMergeEqualsMergePrices() throws Exception {
+        final PriceCatalogGenerator.Workload workload =
+                new PriceCatalogGenerator(2000, 8, 0.6, 0.3, 1, 61).generate();
+        final ShardCoordinator coordinator = new ShardCoordinator(directory, 3, 1000);
+
+        final List<Price> merged = new ArrayList<>();
+        final long count = coordinator.merge(
+                workload.newPrices.iterator(), workload.existingPrices.iterator(), merged::add);
+
+        assertThat(count).isEqualTo(merged.size());
+        assertThat(merged).containsExactlyInAnyOrderElementsOf(
+                service.mergePrices(workload.newPrices, workload.existingPrices));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isZero();
+        }
+    }
+
+    @Test
+    public void skewedGroupIsMergedWhole() throws Exception {
+        final List<Price> existingPrices = new ArrayList<>();
+        final List<Price> newPrices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            existingPrices.add(new Price("1", 1, 1, new Date(i * 10), new Date(i * 10 + 10), i));
+            newPrices.add(new Price("1", 1, 1, new Date(i * 10 + 3), new Date(i * 10 + 6), 1000 + i));
+        }
+        newPrices.add(new Price("2", 1, 1, new Date(0), new Date(10), 1));
+        final ShardCoordinator coordinator = new ShardCoordinator(directory, 2, 10);
+
+        final List<Price> merged = new ArrayList<>();
+        coordinator.merge(newPrices.iterator(), existingPrices.iterator(), merged::add);
+
+        assertThat(merged).containsExactlyInAnyOrderElementsOf(service.mergePrices(newPrices, existingPrices));
+    }
+
+    @Test
+    public void workerFailureIsReported() {
+        final List<Price> newPrices = Collections.singletonList(new Price("1", 1, 1, new Date(0), new Date(10), 1));
+        final ShardCoordinator coordinator = new ShardCoordinator(directory, 2, 10,
+                Collections.singletonList("-Xmx1k"));
+
+        assertThatThrownBy(() -> coordinator.merge(newPrices.iterator(), Collections.emptyIterator(), price -> {
+        })).isInstanceOf(IOException.class).hasMessageContaining("Shard worker");
+    }
+}